@@ -23,8 +23,10 @@ public class AlbumComparator implements Comparator<AudioFile> {
             return 1;
         }
 
-        String album1 = ((TaggedFile) a1).getAlbum();
-        String album2 = ((TaggedFile) a2).getAlbum();
+        int albumId1 = ((TaggedFile) a1).getAlbumId();
+        int albumId2 = ((TaggedFile) a2).getAlbumId();
+        String album1 = SymbolTable.METADATA.valueOf(albumId1);
+        String album2 = SymbolTable.METADATA.valueOf(albumId2);
 
         album1 = album1 != null ? album1 : "";
         album2 = album2 != null ? album2 : "";
@@ -39,7 +41,8 @@ public class AlbumComparator implements Comparator<AudioFile> {
         } else if (isEmptyAlbum2) {
             return 1;
         } else {
-            int albumComparison = album1.compareTo(album2);
+            // Equal albums share one symbol and need no string comparison
+            int albumComparison = albumId1 == albumId2 ? 0 : album1.compareTo(album2);
             if (albumComparison != 0) {
                 return albumComparison;
             }
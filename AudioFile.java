@@ -1,15 +1,28 @@
 package studiplayer.audio;
 
+import java.nio.CharBuffer;
+
 public abstract class AudioFile {
-    private String pathname;
+    // The pathname is stored as a pooled directory prefix (including the separator) plus the filename
+    private String directory;
     private String filename;
-    private String author;
+    // Id of the author in the metadata symbol table
+    private int authorId;
     private String title;
+    // Lower-cased metadata used for searching, built on first use
+    private volatile String searchKey;
+
+    private static final int NO_AUTHOR = SymbolTable.METADATA.idOf("");
+
+    // Platform properties are read once, parsing a pathname must not look them up for every file
+    private static final char SEPARATOR = System.getProperty("file.separator").charAt(0);
+    private static final boolean WINDOWS = System.getProperty("os.name").toLowerCase().contains("win");
+    private static volatile String lastDirectory = "";
 
     public AudioFile() {
-        this.pathname = "";
+        this.directory = "";
         this.filename = "";
-        this.author = "";
+        this.authorId = NO_AUTHOR;
         this.title = "";
     }
 
@@ -23,77 +36,109 @@ public abstract class AudioFile {
     }
 
     public void parsePathname(String path) {
-        path = path.trim();  // Trim whitespace
-        if (path.isEmpty()) {
-            this.pathname = "";
+        // Trim whitespace
+        int begin = 0;
+        int end = path.length();
+        while (begin < end && path.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while (end > begin && path.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (begin == end) {
+            this.directory = "";
             this.filename = "";
             return;
         }
 
-        // Normalize path separators and handle multiple separators
-        String separator = System.getProperty("file.separator");
-        path = path.replace("\\", separator).replace("/", separator);  // Replace slashes
-        path = normalizePath(path, separator.charAt(0));  // Normalize multiple separators
-
-        // Handle drive letter for non-Windows systems without using regex
-        if (!isWindows() && path.length() > 1 && Character.isLetter(path.charAt(0)) && path.charAt(1) == ':') {
-            // Extract the drive letter
-            String driveLetter = String.valueOf(path.charAt(0));
-            // Remove the drive letter and colon from the path
-            path = path.substring(2);
-            // Prepend the drive letter as a directory
-            path = separator + driveLetter + path;
+        // Single pass that replaces slashes by the separator, collapses multiple separators and
+        // finds the last separator; chars is only allocated once the result differs from the input
+        char[] chars = null;
+        int length = 0;
+        int lastSeparator = -1;
+        boolean lastWasSeparator = false;
+        int i = begin;
+        // Handle a drive letter on non-Windows systems by prepending it as a directory
+        if (!WINDOWS && end - begin > 1 && Character.isLetter(path.charAt(begin)) && path.charAt(begin + 1) == ':') {
+            chars = new char[end - begin];
+            chars[0] = SEPARATOR;
+            chars[1] = path.charAt(begin);
+            length = 2;
+            lastSeparator = 0;
+            i += 2;
+        }
+        for (; i < end; i++) {
+            char c = path.charAt(i);
+            boolean separator = c == '/' || c == '\\';
+            if (separator && lastWasSeparator || separator && c != SEPARATOR) {
+                if (chars == null) {
+                    chars = new char[end - begin];
+                    path.getChars(begin, begin + length, chars, 0);
+                }
+                if (lastWasSeparator) {
+                    continue;
+                }
+                c = SEPARATOR;
+            }
+            if (separator) {
+                lastSeparator = length;
+            }
+            lastWasSeparator = separator;
+            if (chars != null) {
+                chars[length] = c;
+            }
+            length++;
         }
 
-        this.pathname = path;  // Store the normalized path as pathname
-
-        // Extract filename by finding the last separator
-        int lastSeparatorIndex = path.lastIndexOf(separator);
-        if (lastSeparatorIndex != -1) {
-            this.filename = path.substring(lastSeparatorIndex + 1).trim();  // Trim the filename
-        } else {
-            this.filename = path.trim();  // If no separator, the entire path is the filename
+        // The filename follows the last separator without leading whitespace, which stays in the directory
+        CharSequence normalized = chars != null ? CharBuffer.wrap(chars) : path;
+        int offset = chars != null ? 0 : begin;
+        int filenameStart = offset + lastSeparator + 1;
+        int filenameEnd = offset + length;
+        while (filenameStart < filenameEnd && normalized.charAt(filenameStart) <= ' ') {
+            filenameStart++;
         }
+        this.directory = pooledDirectory(normalized, offset, filenameStart);
+        this.filename = normalized.subSequence(filenameStart, filenameEnd).toString();
     }
 
-    public String normalizePath(String path, char separator) {
-        StringBuilder builder = new StringBuilder();
-        boolean lastWasSeparator = false;
-
-        for (int i = 0; i < path.length(); i++) {
-            char currentChar = path.charAt(i);
-            if (currentChar == separator) {
-                if (!lastWasSeparator) {
-                    builder.append(separator);
-                    lastWasSeparator = true;
-                }
-            } else {
-                builder.append(currentChar);
-                lastWasSeparator = false;
+    // Files of a play list are mostly grouped by directory, so the previous directory is reused without allocation
+    private static String pooledDirectory(CharSequence path, int begin, int end) {
+        String last = lastDirectory;
+        int length = end - begin;
+        if (last.length() == length) {
+            int i = 0;
+            while (i < length && last.charAt(i) == path.charAt(begin + i)) {
+                i++;
+            }
+            if (i == length) {
+                return last;
             }
         }
-
-        return builder.toString();
+        String directory = StringPool.intern(path.subSequence(begin, end).toString());
+        lastDirectory = directory;
+        return directory;
     }
 
     public void parseFilename(String filename) {
+        searchKey = null;
 
         if (filename.equals(" - ")) {
-            this.author = "";
+            this.authorId = NO_AUTHOR;
             this.title = "";
             return;
         }
 
         // Special case handling for "-"
         if (filename.equals("-")) {
-            this.author = "";
+            this.authorId = NO_AUTHOR;
             this.title = "-";
             return;
         }
 
         // Handle completely empty filenames after trimming
         if (filename.isEmpty()) {
-            this.author = "";
+            this.authorId = NO_AUTHOR;
             this.title = "";
             return;
         }
@@ -105,14 +150,14 @@ public abstract class AudioFile {
 
         // Special case handling for trimmed base name "-"
         if (baseName.equals("-")) {
-            this.author = "";
+            this.authorId = NO_AUTHOR;
             this.title = ""; // For " - ", set title to ""
             return;
         }
 
         // Split the base name into author and title using a dash if it exists
         if (!baseName.contains("-")) {
-            this.author = "";
+            this.authorId = NO_AUTHOR;
             this.title = baseName;
             return;
         }
@@ -122,10 +167,10 @@ public abstract class AudioFile {
 
         // Assign author and title based on the number of parts
         if (parts.length == 2) {
-            this.author = parts[0].trim();
+            this.authorId = SymbolTable.METADATA.idOf(parts[0].trim());
             this.title = parts[1].trim();
         } else {
-            this.author = "";
+            this.authorId = NO_AUTHOR;
             this.title = "";
         }
     }
@@ -140,13 +185,8 @@ public abstract class AudioFile {
         return new String[] { author, title };
     }
 
-
-    private boolean isWindows() {
-        return System.getProperty("os.name").toLowerCase().contains("win");
-    }
-
     public String getPathname() {
-        return pathname;
+        return directory.isEmpty() ? filename : directory + filename;
     }
 
     public String getFilename() {
@@ -154,27 +194,71 @@ public abstract class AudioFile {
     }
 
     public String getAuthor() {
-        return author;
+        return SymbolTable.METADATA.valueOf(getAuthorId());
+    }
+
+    int getAuthorId() {
+        loadMetadata();
+        return authorId;
     }
 
     public String getTitle() {
+        loadMetadata();
         return title;
     }
 
     public void setAuthor(String author) {
-        this.author = author;
+        this.authorId = SymbolTable.METADATA.idOf(author);
+        searchKey = null;
     }
 
     public void setTitle(String title) {
         this.title = title;
+        searchKey = null;
+    }
+
+    /**
+     * Returns the lower-cased author and title (and album for tagged files) separated by '\0',
+     * so a search term is matched against each field with a single indexOf and no allocation.
+     */
+    String getSearchKey() {
+        String key = searchKey;
+        if (key == null) {
+            key = buildSearchKey();
+            searchKey = key;
+        }
+        return key;
+    }
+
+    String buildSearchKey() {
+        return SymbolTable.METADATA.lowerCaseOf(getAuthorId()) + '\0' + lowerCase(getTitle());
+    }
+
+    static String lowerCase(String value) {
+        return value != null ? value.toLowerCase() : "";
+    }
+
+    void invalidateSearchKey() {
+        searchKey = null;
+    }
+
+    /**
+     * Reads metadata whose reading was deferred when the file was created.
+     * Does nothing for files whose metadata is already known.
+     */
+    public void loadMetadata() {
+    }
+
+    public boolean isMetadataLoaded() {
+        return true;
     }
 
     @Override
     public String toString() {
-        if (this.author.isEmpty()) {
+        if (getAuthor().isEmpty()) {
             return this.title;
         }
-        return this.author + " - " + this.title;
+        return getAuthor() + " - " + this.title;
     }
 
     public abstract void play() throws NotPlayableException;
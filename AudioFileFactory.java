@@ -2,16 +2,77 @@ package studiplayer.audio;
 
 public class AudioFileFactory {
 
+    private static volatile MetadataCache metadataCache;
+    private static volatile boolean lazyLoading = false;
+
     public static AudioFile createAudioFile(String path) throws NotPlayableException {
-        String tempPath = path.toLowerCase();
-        if (tempPath.endsWith("wav")) {
-            return new WavFile(path);
-        } else if (tempPath.endsWith("ogg") || tempPath.endsWith("mp3")) {
-            return new TaggedFile(path);
-        } else {
+        return createAudioFile(path, null);
+    }
+
+    /**
+     * Creates an audio file whose metadata is taken from the play list entry if the cache
+     * does not know the file; the file itself is then not read.
+     */
+    static AudioFile createAudioFile(String path, ExtInf entry) throws NotPlayableException {
+        if (!isSupported(path)) {
             throw new NotPlayableException(path, "Unknown suffix for studiplayer.audio.AudioFile \"" + path + "\"");
         }
 
+        SampledFile audioFile = isWav(path) ? new WavFile(path, true) : new TaggedFile(path, true);
+        MetadataCache cache = metadataCache;
+        if (cache == null || !cache.restore(audioFile)) {
+            if (entry != null) {
+                audioFile.setProvisionalMetadata(entry);
+            } else if (!lazyLoading) {
+                audioFile.readDeferredMetadata();
+            }
+        }
+        return audioFile;
+    }
+
+    /**
+     * Returns whether createAudioFile accepts the suffix of the path.
+     */
+    public static boolean isSupported(String path) {
+        return isWav(path) || endsWithIgnoreCase(path, "ogg") || endsWithIgnoreCase(path, "mp3");
+    }
+
+    private static boolean isWav(String path) {
+        return endsWithIgnoreCase(path, "wav");
+    }
+
+    private static boolean endsWithIgnoreCase(String path, String suffix) {
+        return path.regionMatches(true, path.length() - suffix.length(), suffix, 0, suffix.length());
+    }
+
+    // Called once the deferred metadata of a file has been read from disk
+    static void metadataRead(SampledFile audioFile) {
+        MetadataCache cache = metadataCache;
+        if (cache != null) {
+            cache.store(audioFile);
+        }
+    }
+
+    /**
+     * In lazy mode created files only hold their parsed path and read their metadata on first access.
+     */
+    public static void setLazyLoading(boolean lazy) {
+        lazyLoading = lazy;
+    }
+
+    public static boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    /**
+     * Sets the cache consulted before reading metadata from a media file, null disables caching.
+     */
+    public static void setMetadataCache(MetadataCache cache) {
+        metadataCache = cache;
+    }
+
+    public static MetadataCache getMetadataCache() {
+        return metadataCache;
     }
 
 }
@@ -0,0 +1,512 @@
+package studiplayer.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Title, author, album and duration of an mp3 or Ogg Vorbis file. MP3 files are read from their
+ * ID3v2 and ID3v1 tags and the first MPEG frame (Xing/VBRI header or constant bit rate), Ogg files
+ * from the Vorbis comment header and the granule position of the last page. Only the needed parts
+ * of a file are read with positioned reads and no state is shared, so files can be read concurrently.
+ * Absent tags are null, an unknown duration is 0.
+ */
+final class AudioTags {
+
+    private static final int ID3 = 0x494433;                 // "ID3"
+    private static final int TAG = 0x544147;                 // "TAG"
+    private static final int OGGS = 0x4f676753;              // "OggS"
+    private static final int XING = 0x58696e67;              // "Xing"
+    private static final int INFO = 0x496e666f;              // "Info"
+    private static final int VBRI = 0x56425249;              // "VBRI"
+
+    private static final int ID3V1_SIZE = 128;
+    // Bytes searched for the first MPEG frame and for the last Ogg page
+    private static final int SCAN_SIZE = 1 << 16;
+    // Comments beyond this size of the comment header (usually embedded pictures) are not read
+    private static final int MAX_COMMENT_SIZE = 1 << 20;
+    // Frames are read one by one, so pictures are skipped; only a whole-tag unsynchronised ID3v2 tag
+    // is read at once, up to this size
+    private static final int MAX_UNSYNCHRONISED_TAG_SIZE = 1 << 20;
+    // Larger text frames are skipped
+    private static final int MAX_TEXT_FRAME_SIZE = 1 << 16;
+
+    private static final int[][] BITRATES = {
+            { 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },   // MPEG 1 layer I
+            { 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },      // MPEG 1 layer II
+            { 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },       // MPEG 1 layer III
+            { 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },      // MPEG 2 layer I
+            { 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },           // MPEG 2 layer II and III
+    };
+    private static final int[] SAMPLE_RATES = { 44100, 48000, 32000 };
+
+    private String title;
+    private String author;
+    private String album;
+    private long duration;
+
+    private AudioTags() {
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    String getAuthor() {
+        return author;
+    }
+
+    String getAlbum() {
+        return album;
+    }
+
+    long getDuration() {
+        return duration;
+    }
+
+    static AudioTags read(String pathname) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(pathname), StandardOpenOption.READ)) {
+            AudioTags tags = new AudioTags();
+            ByteBuffer start = read(channel, 0, 4);
+            if (start.remaining() == 4 && start.getInt(0) == OGGS) {
+                tags.readOgg(channel, pathname);
+            } else {
+                tags.readMpeg(channel, pathname);
+            }
+            return tags;
+        }
+    }
+
+    /**
+     * Converts the tag map of studiplayer.basic.TagReader.
+     */
+    static AudioTags of(Map<String, Object> tagMap) {
+        AudioTags tags = new AudioTags();
+        tags.title = (String) tagMap.get("title");
+        tags.author = (String) tagMap.get("author");
+        tags.album = (String) tagMap.get("album");
+        tags.duration = (long) tagMap.getOrDefault("duration", 0L);
+        return tags;
+    }
+
+    private void readMpeg(FileChannel channel, String pathname) throws IOException {
+        long fileSize = channel.size();
+        long audioStart = 0;
+        long lengthFromTag = 0;
+        ByteBuffer header = read(channel, 0, 10);
+        if (header.remaining() == 10 && header.getInt(0) >>> 8 == ID3) {
+            int version = header.get(3);
+            int flags = header.get(5);
+            int size = syncSafe(header, 6);
+            // Version 2.4 tags may be followed by a footer
+            audioStart = 10 + size + ((flags & 0x10) != 0 ? 10 : 0);
+            lengthFromTag = readId3v2(channel, size, version, flags);
+        }
+
+        long audioEnd = fileSize;
+        if (fileSize - audioStart >= ID3V1_SIZE) {
+            ByteBuffer id3v1 = read(channel, fileSize - ID3V1_SIZE, ID3V1_SIZE);
+            if (id3v1.getInt(0) >>> 8 == TAG) {
+                audioEnd -= ID3V1_SIZE;
+                readId3v1(id3v1);
+            }
+        }
+
+        ByteBuffer frames = read(channel, audioStart, (int) Math.min(SCAN_SIZE, Math.max(0, audioEnd - audioStart)));
+        for (int i = 0; i + 4 <= frames.limit(); i++) {
+            int frameHeader = frames.getInt(i);
+            int frameLength = frameLength(frameHeader);
+            // A frame counts once the next frame follows it, or the scanned bytes end before
+            if (frameLength > 0 && (i + frameLength + 4 > frames.limit()
+                    || frameLength(frames.getInt(i + frameLength)) > 0)) {
+                duration = mpegDuration(frames, i, frameHeader, audioEnd - audioStart - i, lengthFromTag);
+                return;
+            }
+        }
+        if (lengthFromTag == 0) {
+            throw new IOException("No MPEG audio frame: " + pathname);
+        }
+        duration = lengthFromTag;
+    }
+
+    /**
+     * Reads the ID3v2 frames following the tag header and returns the length in microseconds given
+     * by a TLEN frame or 0. Frame headers are walked with positioned reads and only the bodies of
+     * the wanted frames are read.
+     */
+    private long readId3v2(FileChannel channel, int tagSize, int version, int flags) throws IOException {
+        if (version < 2 || version > 4) {
+            return 0;
+        }
+        if ((flags & 0x80) != 0 && version < 4) {
+            // Frame positions refer to the resynchronised tag, which therefore has to be read as a whole
+            ByteBuffer tag = resynchronise(read(channel, 10, Math.min(tagSize, MAX_UNSYNCHRONISED_TAG_SIZE)));
+            return readId3v2Frames((offset, length) -> tag.slice(offset, Math.max(0, Math.min(length,
+                    tag.limit() - offset))), tag.limit(), version, flags);
+        }
+        return readId3v2Frames((offset, length) -> read(channel, 10 + offset, length), tagSize, version, flags);
+    }
+
+    private long readId3v2Frames(TagBytes tag, int tagSize, int version, int flags) throws IOException {
+        int position = 0;
+        if ((flags & 0x40) != 0 && version > 2) {
+            ByteBuffer extendedHeader = tag.get(0, 4);
+            if (extendedHeader.limit() == 4) {
+                position = version == 4 ? syncSafe(extendedHeader, 0) : extendedHeader.getInt(0) + 4;
+            }
+        }
+        long length = 0;
+        int headerSize = version == 2 ? 6 : 10;
+        while (position >= 0 && position + headerSize <= tagSize
+                && (title == null || author == null || album == null || length == 0)) {
+            ByteBuffer header = tag.get(position, headerSize);
+            if (header.limit() < headerSize || header.get(0) == 0) {
+                break;
+            }
+            int id;
+            int size;
+            int frameFlags = 0;
+            if (version == 2) {
+                id = header.getInt(0) >>> 8;
+                size = header.getInt(2) & 0xFFFFFF;
+            } else {
+                id = header.getInt(0);
+                size = version == 4 ? syncSafe(header, 4) : header.getInt(4);
+                frameFlags = header.getShort(8);
+            }
+            int data = position + headerSize;
+            if (size < 0 || size > tagSize - data) {
+                break;
+            }
+            position = data + size;
+
+            char field = frameField(id);
+            if (field == 0 || size > MAX_TEXT_FRAME_SIZE) {
+                continue;
+            }
+            ByteBuffer body = tag.get(data, size);
+            if (body.limit() < size) {
+                break;
+            }
+            if (version == 3) {
+                // Compressed or encrypted frames are skipped, a group id is one byte
+                if ((frameFlags & 0xC0) != 0) {
+                    continue;
+                }
+                body = (frameFlags & 0x20) != 0 ? body.slice(1, size - 1) : body;
+            } else if (version == 4) {
+                if ((frameFlags & 0x0C) != 0) {
+                    continue;
+                }
+                int skip = ((frameFlags & 0x40) != 0 ? 1 : 0) + ((frameFlags & 0x01) != 0 ? 4 : 0);
+                body = body.slice(skip, size - skip);
+                body = (frameFlags & 0x02) != 0 ? resynchronise(body) : body;
+            }
+            String text = decodeText(body);
+            if (field == 'T' && title == null) {
+                title = text;
+            } else if (field == 'A' && author == null) {
+                author = text;
+            } else if (field == 'B' && album == null) {
+                album = text;
+            } else if (field == 'L' && length == 0) {
+                try {
+                    length = Long.parseLong(text.trim()) * 1000;
+                } catch (NumberFormatException e) {
+                    // Ignore an unreadable length, the duration is then computed from the frames
+                }
+            }
+        }
+        return length;
+    }
+
+    // Title, author, album or length frame of ID3v2.2 (three char ids) and later versions
+    private static char frameField(int id) {
+        switch (id) {
+            case 0x54495432:    // TIT2
+            case 0x545432:      // TT2
+                return 'T';
+            case 0x54504531:    // TPE1
+            case 0x545031:      // TP1
+                return 'A';
+            case 0x54414c42:    // TALB
+            case 0x54414c:      // TAL
+                return 'B';
+            case 0x544c454e:    // TLEN
+            case 0x544c45:      // TLE
+                return 'L';
+            default:
+                return 0;
+        }
+    }
+
+    private void readId3v1(ByteBuffer tag) {
+        if (title == null) {
+            title = id3v1Field(tag, 3);
+        }
+        if (author == null) {
+            author = id3v1Field(tag, 33);
+        }
+        if (album == null) {
+            album = id3v1Field(tag, 63);
+        }
+    }
+
+    private static String id3v1Field(ByteBuffer tag, int offset) {
+        int end = offset;
+        while (end < offset + 30 && tag.get(end) != 0) {
+            end++;
+        }
+        String value = new String(tag.array(), offset, end - offset, StandardCharsets.ISO_8859_1).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    // Frame length of a valid MPEG audio frame header or 0
+    private static int frameLength(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) {
+            return 0;
+        }
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int bitrateIndex = (header >>> 12) & 15;
+        int rateIndex = (header >>> 10) & 3;
+        if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) {
+            return 0;
+        }
+        int bitrate = bitrate(header) * 1000;
+        int sampleRate = sampleRate(header);
+        int padding = (header >>> 9) & 1;
+        if (layer == 3) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        }
+        return samplesPerFrame(header) / 8 * bitrate / sampleRate + padding;
+    }
+
+    private static int bitrate(int header) {
+        boolean mpeg1 = ((header >>> 19) & 3) == 3;
+        int layer = 4 - ((header >>> 17) & 3);
+        int table = mpeg1 ? layer - 1 : (layer == 1 ? 3 : 4);
+        return BITRATES[table][((header >>> 12) & 15) - 1];
+    }
+
+    private static int sampleRate(int header) {
+        int version = (header >>> 19) & 3;
+        // MPEG 2 halves and MPEG 2.5 quarters the MPEG 1 rates
+        int divisor = version == 3 ? 1 : version == 2 ? 2 : 4;
+        return SAMPLE_RATES[(header >>> 10) & 3] / divisor;
+    }
+
+    private static int samplesPerFrame(int header) {
+        int layer = 4 - ((header >>> 17) & 3);
+        boolean mpeg1 = ((header >>> 19) & 3) == 3;
+        return layer == 1 ? 384 : layer == 2 || mpeg1 ? 1152 : 576;
+    }
+
+    // Duration from a Xing or VBRI frame count, a TLEN frame or the constant bit rate, in this order
+    private static long mpegDuration(ByteBuffer frames, int frame, int header, long audioBytes, long lengthFromTag) {
+        boolean mpeg1 = ((header >>> 19) & 3) == 3;
+        boolean mono = ((header >>> 6) & 3) == 3;
+        int sideInfo = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        long frameCount = -1;
+        int xing = frame + 4 + sideInfo;
+        int vbri = frame + 4 + 32;
+        if (xing + 12 <= frames.limit() && (frames.getInt(xing) == XING || frames.getInt(xing) == INFO)
+                && (frames.getInt(xing + 4) & 1) != 0) {
+            frameCount = frames.getInt(xing + 8) & 0xFFFFFFFFL;
+        } else if (vbri + 18 <= frames.limit() && frames.getInt(vbri) == VBRI) {
+            frameCount = frames.getInt(vbri + 14) & 0xFFFFFFFFL;
+        }
+        if (frameCount >= 0) {
+            return microseconds(frameCount * samplesPerFrame(header), sampleRate(header));
+        }
+        if (lengthFromTag > 0) {
+            return lengthFromTag;
+        }
+        return audioBytes * 8000 / bitrate(header);
+    }
+
+    private void readOgg(FileChannel channel, String pathname) throws IOException {
+        long sampleRate = 0;
+        int packets = 0;
+        long position = 0;
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        // The identification and comment headers are the first two packets
+        while (packets < 2) {
+            ByteBuffer page = read(channel, position, 27);
+            if (page.remaining() < 27 || page.order(ByteOrder.BIG_ENDIAN).getInt(0) != OGGS) {
+                throw new IOException("Invalid Ogg page: " + pathname);
+            }
+            int segments = page.get(26) & 0xFF;
+            ByteBuffer lacing = read(channel, position + 27, segments);
+            int bodySize = 0;
+            for (int i = 0; i < lacing.limit(); i++) {
+                bodySize += lacing.get(i) & 0xFF;
+            }
+            ByteBuffer body = read(channel, position + 27 + segments, bodySize);
+            int offset = 0;
+            for (int i = 0; i < lacing.limit() && packets < 2; i++) {
+                int length = Math.min(lacing.get(i) & 0xFF, body.limit() - offset);
+                if (packet.size() < MAX_COMMENT_SIZE) {
+                    packet.write(body.array(), offset, length);
+                }
+                offset += length;
+                if ((lacing.get(i) & 0xFF) < 255) {
+                    ByteBuffer data = ByteBuffer.wrap(packet.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+                    if (packets == 0) {
+                        sampleRate = readVorbisIdentification(data, pathname);
+                    } else {
+                        readVorbisComments(data);
+                    }
+                    packets++;
+                    packet.reset();
+                }
+            }
+            position += 27 + segments + bodySize;
+        }
+        duration = microseconds(lastGranulePosition(channel), sampleRate);
+    }
+
+    private static long readVorbisIdentification(ByteBuffer packet, String pathname) throws IOException {
+        if (packet.limit() < 16 || packet.get(0) != 1 || !isVorbis(packet)) {
+            throw new IOException("Not an Ogg Vorbis file: " + pathname);
+        }
+        return packet.getInt(12) & 0xFFFFFFFFL;
+    }
+
+    private void readVorbisComments(ByteBuffer packet) {
+        if (packet.limit() < 11 || packet.get(0) != 3 || !isVorbis(packet)) {
+            return;
+        }
+        // Comments that were cut off at MAX_COMMENT_SIZE end the loop
+        int position = 11 + packet.getInt(7);
+        if (position < 11 || position + 4 > packet.limit()) {
+            return;
+        }
+        long count = packet.getInt(position) & 0xFFFFFFFFL;
+        position += 4;
+        for (long i = 0; i < count && position + 4 <= packet.limit(); i++) {
+            int length = packet.getInt(position);
+            position += 4;
+            if (length < 0 || position + length > packet.limit()) {
+                return;
+            }
+            String comment = new String(packet.array(), position, length, StandardCharsets.UTF_8);
+            position += length;
+            int separator = comment.indexOf('=');
+            if (separator == -1) {
+                continue;
+            }
+            String key = comment.substring(0, separator);
+            String value = comment.substring(separator + 1);
+            if (title == null && key.equalsIgnoreCase("TITLE")) {
+                title = value;
+            } else if (author == null && key.equalsIgnoreCase("ARTIST")) {
+                author = value;
+            } else if (album == null && key.equalsIgnoreCase("ALBUM")) {
+                album = value;
+            }
+        }
+    }
+
+    private static boolean isVorbis(ByteBuffer packet) {
+        return packet.get(1) == 'v' && packet.get(2) == 'o' && packet.get(3) == 'r' && packet.get(4) == 'b'
+                && packet.get(5) == 'i' && packet.get(6) == 's';
+    }
+
+    // Granule position (samples) of the last page, searched backwards from the end of the file
+    private static long lastGranulePosition(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int length = (int) Math.min(SCAN_SIZE, fileSize);
+        ByteBuffer end = read(channel, fileSize - length, length);
+        for (int i = end.limit() - 27; i >= 0; i--) {
+            if (end.order(ByteOrder.BIG_ENDIAN).getInt(i) == OGGS) {
+                long granule = end.order(ByteOrder.LITTLE_ENDIAN).getLong(i + 6);
+                if (granule >= 0) {
+                    return granule;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static long microseconds(long samples, long sampleRate) {
+        if (sampleRate <= 0) {
+            return 0;
+        }
+        return samples / sampleRate * 1_000_000 + samples % sampleRate * 1_000_000 / sampleRate;
+    }
+
+    private static String decodeText(ByteBuffer body) {
+        if (body.limit() < 1) {
+            return "";
+        }
+        int encoding = body.get(0);
+        Charset charset;
+        switch (encoding) {
+            case 1:
+                charset = StandardCharsets.UTF_16;
+                break;
+            case 2:
+                charset = StandardCharsets.UTF_16BE;
+                break;
+            case 3:
+                charset = StandardCharsets.UTF_8;
+                break;
+            default:
+                charset = StandardCharsets.ISO_8859_1;
+        }
+        // The text ends at the first terminator, later values of a multi-value frame are ignored
+        boolean wide = encoding == 1 || encoding == 2;
+        int end = 1;
+        while (end < body.limit() && !(wide ? end + 1 < body.limit() && body.get(end) == 0 && body.get(end + 1) == 0
+                : body.get(end) == 0)) {
+            end += wide ? 2 : 1;
+        }
+        end = Math.min(end, body.limit());
+        byte[] bytes = new byte[end - 1];
+        body.get(1, bytes);
+        return new String(bytes, charset);
+    }
+
+    // Removes the zero byte the unsynchronisation scheme inserts after every 0xFF
+    private static ByteBuffer resynchronise(ByteBuffer data) {
+        byte[] bytes = new byte[data.limit()];
+        int length = 0;
+        for (int i = 0; i < data.limit(); i++) {
+            byte b = data.get(i);
+            if (!(b == 0 && i > 0 && data.get(i - 1) == (byte) 0xFF)) {
+                bytes[length++] = b;
+            }
+        }
+        return ByteBuffer.wrap(bytes, 0, length).slice();
+    }
+
+    // Bytes of an ID3v2 tag by offset from the end of the tag header; shorter at the end of the data
+    private interface TagBytes {
+        ByteBuffer get(int offset, int length) throws IOException;
+    }
+
+    private static int syncSafe(ByteBuffer buffer, int offset) {
+        return (buffer.get(offset) & 0x7F) << 21 | (buffer.get(offset + 1) & 0x7F) << 14
+                | (buffer.get(offset + 2) & 0x7F) << 7 | (buffer.get(offset + 3) & 0x7F);
+    }
+
+    // Reads up to length bytes at position; the buffer is shorter at the end of the file
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(0, length));
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+}
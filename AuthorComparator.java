@@ -8,8 +8,13 @@ public class AuthorComparator implements Comparator<AudioFile> {
         if (a == null || b == null)
             throw new NullPointerException("Arguments are null");
 
-        if (a.getAuthor() == null || b.getAuthor() == null)
+        int authorA = a.getAuthorId();
+        int authorB = b.getAuthorId();
+        if (authorA == SymbolTable.NONE || authorB == SymbolTable.NONE)
             throw new NullPointerException("Author must not be null");
+        // Equal authors share one symbol, so only different authors need a string comparison
+        if (authorA == authorB)
+            return 0;
         return a.getAuthor().compareTo(b.getAuthor());
     }
 }
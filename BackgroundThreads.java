@@ -0,0 +1,64 @@
+package studiplayer.audio;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Daemon threads for the background work of the audio classes, named after their task, and the hand-over
+ * of their results to a callback executor (e.g. Platform::runLater).
+ */
+final class BackgroundThreads {
+
+    private BackgroundThreads() {
+    }
+
+    static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    static Thread start(String name, Runnable task) {
+        Thread thread = daemon(name, task);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Creates daemon threads named prefix-1, prefix-2, ...
+     */
+    static ThreadFactory factory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> daemon(prefix + "-" + count.incrementAndGet(), task);
+    }
+
+    /**
+     * Creates a fork/join pool of daemon threads named prefix-0, prefix-1, ...
+     */
+    static ForkJoinPool forkJoinPool(int parallelism, String prefix) {
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(prefix + "-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Completes future on the callback executor, after the callbacks queued before; exceptionally if
+     * failure is not null.
+     */
+    static <T> void complete(Executor callbackExecutor, CompletableFuture<T> future, T value, Throwable failure) {
+        callbackExecutor.execute(() -> {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(value);
+            }
+        });
+    }
+}
@@ -1,6 +1,9 @@
 package studiplayer.audio;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 public class ControllablePlayListIterator implements Iterator<AudioFile> {
 
@@ -12,45 +15,66 @@ public class ControllablePlayListIterator implements Iterator<AudioFile> {
     }
 
     public ControllablePlayListIterator(List<AudioFile> playList, String search, SortCriterion sortCriterion) {
-        this.playList = new ArrayList<>();
-
         // Apply filtering
-        for (AudioFile audioFile : playList) {
-            if (matchesSearch(audioFile, search)) {
-                this.playList.add(audioFile);
-            }
-        }
+        String query = normalizeSearch(search);
+        this.playList = filter(playList, audioFile -> matchesQuery(audioFile, query), null);
 
         // Apply sorting
-        if (sortCriterion != null && sortCriterion != SortCriterion.DEFAULT) {
-            Comparator<AudioFile> comparator = getComparator(sortCriterion);
-            if (comparator != null) {
-                this.playList.sort(comparator);
-            }
-        }
+        SortEngine.sort(this.playList, sortCriterion);
+    }
+
+    static boolean matchesSearch(AudioFile audioFile, String search) {
+        return matchesQuery(audioFile, normalizeSearch(search));
     }
 
-    private boolean matchesSearch(AudioFile audioFile, String search) {
+    // Lower-cased search term, or null if everything matches
+    static String normalizeSearch(String search) {
         if (search == null || search.isEmpty()) {
-            return true;
+            return null;
         }
-        search = search.toLowerCase();
-        boolean matches = false;
-
-        if (audioFile.getAuthor() != null && audioFile.getAuthor().toLowerCase().contains(search)) {
-            matches = true;
-        } else if (audioFile.getTitle() != null && audioFile.getTitle().toLowerCase().contains(search)) {
-            matches = true;
-        } else if (audioFile instanceof TaggedFile) {
-            TaggedFile taggedFile = (TaggedFile) audioFile;
-            if (taggedFile.getAlbum() != null && taggedFile.getAlbum().toLowerCase().contains(search)) {
-                matches = true;
+        return search.toLowerCase();
+    }
+
+    // Author, title or album contain the normalized query; the fields are separated by '\0' in the search key
+    static boolean matchesQuery(AudioFile audioFile, String query) {
+        return query == null || audioFile.getSearchKey().contains(query);
+    }
+
+    private static final int CANCELLATION_CHECK_INTERVAL = 4096;
+
+    /**
+     * Returns the files accepted by the filter in list order, filtering in parallel for large lists.
+     * Returns null if the owner thread is interrupted meanwhile; owner may be null.
+     */
+    static List<AudioFile> filter(List<AudioFile> files, Predicate<AudioFile> filter, Thread owner) {
+        if (!SortEngine.isParallel(files.size())) {
+            List<AudioFile> accepted = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                if (owner != null && i % CANCELLATION_CHECK_INTERVAL == 0 && owner.isInterrupted()) {
+                    return null;
+                }
+                AudioFile file = files.get(i);
+                if (filter.test(file)) {
+                    accepted.add(file);
+                }
             }
+            return accepted;
+        }
+        try {
+            return files.parallelStream()
+                    .filter(file -> {
+                        if (owner != null && owner.isInterrupted()) {
+                            throw new CancellationException();
+                        }
+                        return filter.test(file);
+                    })
+                    .collect(Collectors.toCollection(ArrayList::new));
+        } catch (CancellationException e) {
+            return null;
         }
-        return matches;
     }
 
-    private Comparator<AudioFile> getComparator(SortCriterion sortCriterion) {
+    static Comparator<AudioFile> getComparator(SortCriterion sortCriterion) {
         switch (sortCriterion) {
             case AUTHOR:
                 return new AuthorComparator();
@@ -0,0 +1,61 @@
+package studiplayer.audio;
+
+/**
+ * Metadata of an extended M3U entry, "#EXTINF:duration[ attributes],Author - Title".
+ */
+final class ExtInf {
+
+    static final String PREFIX = "#EXTINF:";
+    // Longer durations cannot be formatted (see SampledFile.timeFormatter), such files are read instead
+    private static final long MAX_DURATION = 100 * 60 * 1_000_000L;
+
+    // In microseconds
+    final long duration;
+    final String author;
+    final String title;
+
+    private ExtInf(long duration, String author, String title) {
+        this.duration = duration;
+        this.author = author;
+        this.title = title;
+    }
+
+    /**
+     * Parses an EXTINF line; returns null if it carries no usable duration or no title, e.g. "#EXTINF:-1,".
+     */
+    static ExtInf parse(String line) {
+        int start = PREFIX.length();
+        int end = start;
+        while (end < line.length() && line.charAt(end) != ',' && line.charAt(end) != ' ') {
+            end++;
+        }
+        double seconds;
+        try {
+            seconds = Double.parseDouble(line.substring(start, end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        // Attributes between duration and title may contain quoted commas
+        boolean quoted = false;
+        while (end < line.length() && (quoted || line.charAt(end) != ',')) {
+            if (line.charAt(end) == '"') {
+                quoted = !quoted;
+            }
+            end++;
+        }
+        // Also rejects NaN and infinity
+        if (!(seconds >= 0 && Math.round(seconds * 1_000_000) < MAX_DURATION) || end >= line.length()) {
+            return null;
+        }
+        String displayTitle = line.substring(end + 1).trim();
+        if (displayTitle.isEmpty()) {
+            return null;
+        }
+        long duration = Math.round(seconds * 1_000_000);
+        int dash = displayTitle.indexOf(" - ");
+        if (dash == -1) {
+            return new ExtInf(duration, "", displayTitle);
+        }
+        return new ExtInf(duration, displayTitle.substring(0, dash).trim(), displayTitle.substring(dash + 3).trim());
+    }
+}
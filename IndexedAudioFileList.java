@@ -0,0 +1,136 @@
+package studiplayer.audio;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Random-access list of audio files with an identity based position index.
+ * Positions after a removal are renumbered lazily, so a burst of removals
+ * costs a single renumbering pass instead of one per removal.
+ */
+class IndexedAudioFileList extends AbstractList<AudioFile> implements RandomAccess {
+
+    private final ArrayList<AudioFile> files = new ArrayList<>();
+    private final Map<AudioFile, Integer> positions = new IdentityHashMap<>();
+    // Entries of positions pointing below this index are known to be correct
+    private int validBelow = 0;
+    // Set once a file may have been added twice, false only while every file is listed once
+    private boolean duplicates = false;
+
+    @Override
+    public AudioFile get(int index) {
+        return files.get(index);
+    }
+
+    @Override
+    public int size() {
+        return files.size();
+    }
+
+    @Override
+    public boolean add(AudioFile file) {
+        files.add(file);
+        if (positions.putIfAbsent(file, files.size() - 1) != null) {
+            duplicates = true;
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public AudioFile set(int index, AudioFile file) {
+        if (positions.containsKey(file)) {
+            duplicates = true;
+        }
+        AudioFile old = files.set(index, file);
+        Integer position = positions.get(old);
+        if (position != null && position == index) {
+            positions.remove(old);
+        }
+        // A later occurrence of the old file and the new file are found again from here
+        validBelow = Math.min(validBelow, index);
+        return old;
+    }
+
+    @Override
+    public AudioFile remove(int index) {
+        AudioFile file = files.remove(index);
+        Integer position = positions.remove(file);
+        // An earlier occurrence of the same file loses its entry as well and has to be found again
+        validBelow = Math.min(validBelow, position != null && position < index ? position : index);
+        modCount++;
+        return file;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+        if (index == -1) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    // One compacting pass instead of shifting the list once per removed file
+    @Override
+    public boolean removeIf(Predicate<? super AudioFile> filter) {
+        if (!files.removeIf(filter)) {
+            return false;
+        }
+        positions.clear();
+        validBelow = 0;
+        duplicates = false;
+        reindex();
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        Integer position = positions.get(o);
+        if (position != null && position < validBelow) {
+            return position;
+        }
+        if (validBelow < files.size()) {
+            reindex();
+            position = positions.get(o);
+        }
+        return position != null ? position : -1;
+    }
+
+    @Override
+    public void clear() {
+        files.clear();
+        positions.clear();
+        validBelow = 0;
+        duplicates = false;
+        modCount++;
+    }
+
+    /**
+     * Returns false if every file is listed once; true if a file may be listed more than once.
+     */
+    boolean hasDuplicates() {
+        return duplicates;
+    }
+
+    private void reindex() {
+        for (int i = validBelow; i < files.size(); i++) {
+            AudioFile file = files.get(i);
+            Integer position = positions.get(file);
+            // Keep the first occurrence of a file that was added more than once
+            if (position == null || position >= i || files.get(position) != file) {
+                positions.put(file, i);
+            } else {
+                duplicates = true;
+            }
+        }
+        validBelow = files.size();
+    }
+}
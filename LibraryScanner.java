@@ -0,0 +1,259 @@
+package studiplayer.audio;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans a directory tree for audio files with suffixes supported by AudioFileFactory. Directories are
+ * walked in parallel on a fork/join pool, and the target PlayList receives the files in batches, in no
+ * particular order, on the callback executor.
+ * The scanner remembers size and modification time of every file, so rescanning into the same PlayList
+ * only creates audio files for new or modified files and removes files that were deleted.
+ */
+public class LibraryScanner {
+
+    public interface ProgressListener {
+        void progress(int scanned, int changed);
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final AtomicInteger scannerCount = new AtomicInteger();
+
+    private final ForkJoinPool pool;
+    // Files found by the previous scans by pathname
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean scanning = new AtomicBoolean();
+    private int generation = 0;
+
+    public LibraryScanner() {
+        this(Math.min(Runtime.getRuntime().availableProcessors() * 2, 16));
+    }
+
+    public LibraryScanner(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.pool = BackgroundThreads.forkJoinPool(parallelism, "library-scanner-" + scannerCount.incrementAndGet());
+    }
+
+    /**
+     * Scans the directory tree into target, which should be the PlayList of the previous scans.
+     * Batches, progress reports and the completion of the returned future all happen on callbackExecutor.
+     */
+    public CompletableFuture<PlayList> scan(String directory, PlayList target, Executor callbackExecutor,
+                                            ProgressListener listener) {
+        if (!scanning.compareAndSet(false, true)) {
+            throw new IllegalStateException("A scan is already running");
+        }
+        Scan scan = new Scan(++generation, target, callbackExecutor, listener);
+        pool.execute(() -> {
+            Exception failure = null;
+            try {
+                Path root = Path.of(directory);
+                if (!Files.isDirectory(root)) {
+                    throw new IOException("Directory does not exist: " + directory);
+                }
+                new DirectoryTask(root, scan).invoke();
+                scan.finish();
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+            // The next scan may start once this one completed
+            scanning.set(false);
+            scan.feed.complete(scan.future, target, failure);
+        });
+        return scan.future;
+    }
+
+    /**
+     * Stops the scanner threads; a running scan is abandoned.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        // Null if the file could not be loaded; it is retried once it changes
+        private final AudioFile file;
+        // Last scan that found the file
+        private volatile int generation;
+
+        Entry(long size, long modified, AudioFile file, int generation) {
+            this.size = size;
+            this.modified = modified;
+            this.file = file;
+            this.generation = generation;
+        }
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private final Path directory;
+        private final Scan scan;
+
+        DirectoryTask(Path directory, Scan scan) {
+            this.directory = directory;
+            this.scan = scan;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isDirectory()) {
+                            DirectoryTask task = new DirectoryTask(path, scan);
+                            task.fork();
+                            subdirectories.add(task);
+                            continue;
+                        }
+                        String pathname = path.toString();
+                        if (!AudioFileFactory.isSupported(pathname)) {
+                            continue;
+                        }
+                        // Linked files are followed, linked directories are not to avoid cycles
+                        if (attributes.isSymbolicLink()) {
+                            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                        }
+                        if (attributes.isRegularFile()) {
+                            visit(pathname, attributes);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Cannot scan file: " + path + " - " + e);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                System.err.println("Cannot scan directory: " + directory + " - " + e);
+            }
+            for (DirectoryTask task : subdirectories) {
+                task.join();
+            }
+        }
+
+        private void visit(String pathname, BasicFileAttributes attributes) {
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            Entry old = entries.get(pathname);
+            if (old != null && old.size == size && old.modified == modified) {
+                old.generation = scan.generation;
+                scan.scanned(null, null);
+                return;
+            }
+            AudioFile file = createAudioFile(pathname);
+            // Read on the scanner thread if the target sorts or searches by metadata
+            if (file != null && scan.target.needsMetadata()) {
+                file.loadMetadata();
+            }
+            entries.put(pathname, new Entry(size, modified, file, scan.generation));
+            scan.scanned(old != null ? old.file : null, file);
+        }
+    }
+
+    private static AudioFile createAudioFile(String pathname) {
+        try {
+            return AudioFileFactory.createAudioFile(pathname);
+        } catch (NotPlayableException e) {
+            System.err.println("Cannot load audio file: " + pathname + " - " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Cannot load audio file: " + pathname + " - " + e);
+        }
+        return null;
+    }
+
+    private final class Scan {
+        private final int generation;
+        private final PlayList target;
+        private final PlayListFeed feed;
+        private final ProgressListener listener;
+        private final CompletableFuture<PlayList> future = new CompletableFuture<>();
+
+        private Map<AudioFile, AudioFile> replaced = new LinkedHashMap<>();
+        private List<AudioFile> removed = new ArrayList<>();
+        private List<AudioFile> added = new ArrayList<>();
+        private int scanned = 0;
+        private int changed = 0;
+
+        Scan(int generation, PlayList target, Executor callbackExecutor, ProgressListener listener) {
+            this.generation = generation;
+            this.target = target;
+            this.feed = new PlayListFeed(target, callbackExecutor);
+            this.listener = listener;
+        }
+
+        // Records a scanned file, replacing oldFile by newFile if one of them is set
+        synchronized void scanned(AudioFile oldFile, AudioFile newFile) {
+            scanned++;
+            if (oldFile != null || newFile != null) {
+                changed++;
+            }
+            // A modified file keeps its place in the target
+            if (oldFile != null && newFile != null) {
+                replaced.put(oldFile, newFile);
+            } else if (oldFile != null) {
+                removed.add(oldFile);
+            } else if (newFile != null) {
+                added.add(newFile);
+            }
+            if (replaced.size() + removed.size() + added.size() >= BATCH_SIZE) {
+                deliver();
+            }
+        }
+
+        // Removes the files of entries not found by this scan
+        synchronized void finish() {
+            entries.entrySet().removeIf(e -> {
+                if (e.getValue().generation == generation) {
+                    return false;
+                }
+                if (e.getValue().file != null) {
+                    removed.add(e.getValue().file);
+                    changed++;
+                }
+                return true;
+            });
+            deliver();
+        }
+
+        // Hands the pending changes to the target; callbacks are queued while holding the lock to keep their order
+        private void deliver() {
+            Map<AudioFile, AudioFile> batchReplaced = replaced;
+            List<AudioFile> batchRemoved = removed;
+            List<AudioFile> batchAdded = added;
+            replaced = new LinkedHashMap<>();
+            removed = new ArrayList<>();
+            added = new ArrayList<>();
+            int scannedFiles = scanned;
+            int changedFiles = changed;
+            List<AudioFile> created = new ArrayList<>(batchAdded);
+            created.addAll(batchReplaced.values());
+            feed.submit(created, () -> {
+                batchReplaced.forEach(target::replace);
+                target.removeAll(batchRemoved);
+                target.addAll(batchAdded);
+                if (listener != null) {
+                    listener.progress(scannedFiles, changedFiles);
+                }
+            });
+        }
+    }
+}
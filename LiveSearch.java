@@ -0,0 +1,113 @@
+package studiplayer.audio;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Filters a play list while the user types. The matching runs on a background thread: a query
+ * extending the previous one only re-checks the previous matches, other queries are looked up in the
+ * play list's search index. Starting a new search cancels the pending one, and results of superseded
+ * queries are dropped.
+ */
+public class LiveSearch {
+
+    // Searches of a list that keeps changing, e.g. while loading, before the view searches the index itself
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Executor callbackExecutor;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(BackgroundThreads.factory("live-search"));
+
+    // Only accessed on the callback executor
+    private PlayList lastPlayList;
+    private int lastModifications;
+    private String lastQuery;
+    private List<AudioFile> lastMatches;
+    private Future<?> pending;
+    private long generation = 0;
+
+    public LiveSearch(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Applies the search text to the play list and runs onApplied, both on the callback executor.
+     * Has to be called from the callback executor's thread.
+     */
+    public void search(PlayList playList, String text, Runnable onApplied) {
+        search(playList, text, onApplied, 1);
+    }
+
+    private void search(PlayList playList, String text, Runnable onApplied, int attempt) {
+        long searchGeneration = ++generation;
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+
+        String search = text.trim();
+        String query = ControllablePlayListIterator.normalizeSearch(search);
+        if (query == null) {
+            forget();
+            playList.setSearch(search);
+            onApplied.run();
+            return;
+        }
+
+        boolean narrowing = playList == lastPlayList && playList.getModifications() == lastModifications
+                && lastQuery != null && query.startsWith(lastQuery);
+        List<AudioFile> candidates = narrowing ? lastMatches : null;
+        int candidateModifications = lastModifications;
+        if (!narrowing) {
+            forget();
+        }
+
+        pending = executor.submit(() -> {
+            List<AudioFile> matches;
+            int modifications;
+            if (candidates != null) {
+                matches = ControllablePlayListIterator.filter(candidates,
+                        file -> ControllablePlayListIterator.matchesQuery(file, query), Thread.currentThread());
+                if (matches == null) {
+                    return;
+                }
+                modifications = candidateModifications;
+            } else {
+                PlayList.Matches found = playList.findMatches(query);
+                matches = found.files;
+                modifications = found.modifications;
+            }
+            callbackExecutor.execute(() -> {
+                if (searchGeneration != generation) {
+                    return;
+                }
+                pending = null;
+                if (playList.setSearch(search, matches, modifications)) {
+                    lastPlayList = playList;
+                    lastModifications = modifications;
+                    lastQuery = query;
+                    lastMatches = matches;
+                    onApplied.run();
+                } else if (attempt < MAX_ATTEMPTS) {
+                    // The list changed while searching, search the changed list in the background again
+                    forget();
+                    search(playList, text, onApplied, attempt + 1);
+                } else {
+                    // The view looks the query up in the index built by the previous attempts
+                    forget();
+                    playList.setSearch(search);
+                    onApplied.run();
+                }
+            });
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void forget() {
+        lastPlayList = null;
+        lastQuery = null;
+        lastMatches = null;
+    }
+}
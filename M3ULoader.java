@@ -0,0 +1,238 @@
+package studiplayer.audio;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads an M3U or UTF-8 encoded M3U8 play list in parallel. The file is streamed, at most WINDOW
+ * entries are in flight at once, and the audio files are created on a bounded pool of loader threads.
+ * The target PlayList receives them in M3U order, in batches, on the callback executor.
+ * Files listed with an EXTINF duration and title take their metadata from the entry instead of the file,
+ * optionally verified against the file in the background once the play list is loaded.
+ */
+public class M3ULoader {
+
+    public interface ProgressListener {
+        /**
+         * Reports the entries loaded so far; total is -1 until the end of the play list was read.
+         */
+        void progress(int loaded, int total);
+    }
+
+    private static final int BATCH_SIZE = 256;
+    // Entries read ahead of the delivered ones
+    private static final int WINDOW = 16 * BATCH_SIZE;
+    private static final Object FAILED = new Object();
+    private static final AtomicInteger loaderCount = new AtomicInteger();
+
+    private final int parallelism;
+    private final boolean verifyExtInf;
+
+    public M3ULoader() {
+        this(Math.min(Runtime.getRuntime().availableProcessors() * 2, 16));
+    }
+
+    public M3ULoader(int parallelism) {
+        this(parallelism, false);
+    }
+
+    /**
+     * With verifyExtInf set, files whose metadata was taken from EXTINF entries are read after
+     * loading, and files whose metadata differs are replaced in the target by a newly read version.
+     */
+    public M3ULoader(int parallelism, boolean verifyExtInf) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.verifyExtInf = verifyExtInf;
+    }
+
+    /**
+     * Replaces the content of target with the audio files listed in the M3U file.
+     * Batches, progress reports and the completion of the returned future all happen on callbackExecutor.
+     */
+    public CompletableFuture<PlayList> load(String m3uPathName, PlayList target, Executor callbackExecutor,
+                                            ProgressListener listener) {
+        Job job = new Job(target, callbackExecutor, listener);
+        ThreadFactory threadFactory = BackgroundThreads.factory("m3u-loader-" + loaderCount.incrementAndGet());
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, threadFactory);
+        // The reader blocks while the window is full, so it must not take one of the pool's threads
+        threadFactory.newThread(() -> {
+            try (BufferedReader playListReader = openReader(m3uPathName)) {
+                job.start();
+                int total = readEntries(playListReader, pool, job);
+                job.end(total);
+                if (verifyExtInf) {
+                    // Wait until every entry was delivered
+                    job.slots.acquire(WINDOW);
+                    for (SampledFile file : job.provisional) {
+                        pool.execute(() -> job.verify(file));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                job.feed.complete(job.future, null, e);
+            } catch (InterruptedException e) {
+                // Unblocks callers waiting with join; a future completed before is left as it is
+                job.feed.complete(job.future, null, e);
+                Thread.currentThread().interrupt();
+            } finally {
+                pool.shutdown();
+            }
+        }).start();
+        return job.future;
+    }
+
+    private static BufferedReader openReader(String m3uPathName) throws IOException {
+        File file = new File(m3uPathName);
+        if (!file.exists()) {
+            throw new IOException("PlayList file does not exist: " + m3uPathName);
+        }
+        // M3U8 is UTF-8 by definition, plain M3U files use the platform encoding as before
+        Charset charset = m3uPathName.toLowerCase().endsWith(".m3u8") ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), charset));
+    }
+
+    // Submits one task per entry and returns the number of entries
+    private static int readEntries(BufferedReader playListReader, ExecutorService pool, Job job)
+            throws IOException, InterruptedException {
+        int index = 0;
+        ExtInf entry = null;
+        String line;
+        try {
+            while ((line = playListReader.readLine()) != null) {
+                if (index == 0 && line.startsWith("\uFEFF")) {
+                    line = line.substring(1);
+                }
+                if (line.startsWith("#")) {
+                    if (line.startsWith(ExtInf.PREFIX)) {
+                        entry = ExtInf.parse(line);
+                    }
+                    continue;
+                }
+                if (line.trim().isEmpty())
+                    continue;
+                job.slots.acquire();
+                int lineIndex = index++;
+                String pathname = line;
+                ExtInf lineEntry = entry;
+                entry = null;
+                pool.execute(() -> job.completed(lineIndex, job.prepare(createAudioFile(pathname, lineEntry))));
+            }
+        } catch (IOException ex) {
+            throw new IOException("Error reading M3U file: " + ex.getMessage(), ex);
+        }
+        return index;
+    }
+
+    private static Object createAudioFile(String line, ExtInf entry) {
+        try {
+            return AudioFileFactory.createAudioFile(line, entry);
+        } catch (NotPlayableException e) {
+            System.err.println("Cannot load audio file: " + line + " - " + e.getMessage());
+            e.printStackTrace(System.err);
+        } catch (RuntimeException e) {
+            System.err.println("Cannot load audio file: " + line + " - " + e);
+        }
+        return FAILED;
+    }
+
+    private static final class Job {
+        private final PlayList target;
+        private final ProgressListener listener;
+        private final PlayListFeed feed;
+        private final CompletableFuture<PlayList> future = new CompletableFuture<>();
+        // One permit per entry that may be read before the earlier entries are delivered
+        private final Semaphore slots = new Semaphore(WINDOW);
+        // Delivered files with metadata from EXTINF entries
+        private final List<SampledFile> provisional = new ArrayList<>();
+
+        // Created audio files (or FAILED) by M3U entry modulo WINDOW, null while still loading
+        private final Object[] results = new Object[WINDOW];
+        private int completedPrefix = 0;
+        private int delivered = 0;
+        private int total = -1;
+
+        Job(PlayList target, Executor callbackExecutor, ProgressListener listener) {
+            this.target = target;
+            this.listener = listener;
+            this.feed = new PlayListFeed(target, callbackExecutor);
+        }
+
+        synchronized void start() {
+            feed.submit(target::clear);
+        }
+
+        // Reads the metadata on the loader thread if the target sorts or searches by it
+        Object prepare(Object result) {
+            if (result != FAILED && target.needsMetadata()) {
+                ((AudioFile) result).loadMetadata();
+            }
+            return result;
+        }
+
+        synchronized void completed(int index, Object result) {
+            results[index % WINDOW] = result;
+            while (completedPrefix < delivered + WINDOW && results[completedPrefix % WINDOW] != null) {
+                completedPrefix++;
+            }
+            if (completedPrefix - delivered >= BATCH_SIZE || completedPrefix == total) {
+                deliver();
+            }
+        }
+
+        synchronized void end(int total) {
+            this.total = total;
+            if (completedPrefix == total) {
+                deliver();
+            }
+        }
+
+        // Hands the completed prefix to the target; callbacks are queued while holding the lock to keep their order
+        private void deliver() {
+            List<AudioFile> batch = new ArrayList<>(completedPrefix - delivered);
+            for (int i = delivered; i < completedPrefix; i++) {
+                Object result = results[i % WINDOW];
+                if (result != FAILED) {
+                    batch.add((AudioFile) result);
+                    if (result instanceof SampledFile && ((SampledFile) result).isMetadataProvisional()) {
+                        provisional.add((SampledFile) result);
+                    }
+                }
+                results[i % WINDOW] = null;
+            }
+            slots.release(completedPrefix - delivered);
+            delivered = completedPrefix;
+            int loaded = delivered;
+            int total = this.total;
+            if (!batch.isEmpty() || total == 0) {
+                feed.submit(batch, () -> {
+                    target.addAll(batch);
+                    if (listener != null) {
+                        listener.progress(loaded, total);
+                    }
+                });
+            }
+            if (loaded == total) {
+                feed.complete(future, target, null);
+            }
+        }
+
+        void verify(SampledFile file) {
+            try {
+                SampledFile verified = file.readVerified();
+                if (verified != null) {
+                    feed.submit(List.of(verified), () -> target.replace(file, verified));
+                }
+            } catch (NotPlayableException e) {
+                System.err.println("Cannot verify metadata of " + file.getPathname() + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("Cannot verify metadata of " + file.getPathname() + ": " + e);
+            }
+        }
+    }
+}
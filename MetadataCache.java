@@ -0,0 +1,240 @@
+package studiplayer.audio;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of the metadata read from audio files, keyed by absolute path and invalidated
+ * by file size and modification time. A hit only costs a stat of the media file.
+ * Entries of files that no longer exist are dropped when the cache is saved.
+ */
+public class MetadataCache {
+
+    private static final int MAGIC = 0x53504D43; // "SPMC"
+    // Version 1 stored strings with writeUTF, which is limited to 64 KB
+    private static final int VERSION = 2;
+    private static final int MAX_STRING_BYTES = 1 << 24;
+    private static final byte KIND_WAV = 1;
+    private static final byte KIND_TAGGED = 2;
+
+    private final Path cacheFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean modified = false;
+
+    /**
+     * Opens the cache stored in cacheFile. A missing or unreadable cache file results in an empty cache.
+     */
+    public MetadataCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                read();
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable metadata cache " + cacheFile + ": " + e.getMessage());
+                entries.clear();
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Fills in the metadata of a file from the cache. Returns false if there is no entry
+     * for the file or the file changed on disk since it was cached.
+     */
+    boolean restore(SampledFile file) {
+        String key = keyOf(file);
+        Entry entry = key != null ? entries.get(key) : null;
+        if (entry == null || entry.kind != kindOf(file)) {
+            return false;
+        }
+        BasicFileAttributes attributes = stat(key);
+        if (attributes == null || attributes.size() != entry.size
+                || attributes.lastModifiedTime().toMillis() != entry.lastModified) {
+            entries.remove(key, entry);
+            modified = true;
+            return false;
+        }
+        if (file instanceof TaggedFile) {
+            ((TaggedFile) file).setAlbum(entry.album);
+            file.setTitle(entry.title);
+            file.setAuthor(entry.author);
+        }
+        file.setDuration(entry.duration);
+        file.markMetadataLoaded();
+        entry.used = true;
+        return true;
+    }
+
+    void store(SampledFile file) {
+        byte kind = kindOf(file);
+        String key = keyOf(file);
+        BasicFileAttributes attributes = kind != 0 && key != null ? stat(key) : null;
+        if (attributes == null) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.size = attributes.size();
+        entry.lastModified = attributes.lastModifiedTime().toMillis();
+        entry.kind = kind;
+        if (kind == KIND_TAGGED) {
+            entry.author = file.getAuthor();
+            entry.title = file.getTitle();
+            entry.album = ((TaggedFile) file).getAlbum();
+        }
+        entry.duration = file.getDuration();
+        entry.used = true;
+        entries.put(key, entry);
+        modified = true;
+    }
+
+    /**
+     * Writes the cache back to disk if it changed. Entries not used since the cache was opened are
+     * dropped if their file no longer exists. The file is replaced atomically where supported.
+     */
+    public void save() throws IOException {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (!e.getValue().used && stat(e.getKey()) == null) {
+                entries.remove(e.getKey(), e.getValue());
+                modified = true;
+            }
+        }
+        if (!modified) {
+            return;
+        }
+        modified = false;
+        Path directory = cacheFile.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        Path tempFile = Files.createTempFile(directory, "metadata", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                Map<String, Entry> snapshot = Map.copyOf(entries);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                    Entry entry = e.getValue();
+                    writeString(out, e.getKey());
+                    out.writeByte(entry.kind);
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.duration);
+                    if (entry.kind == KIND_TAGGED) {
+                        writeString(out, nonNull(entry.author));
+                        writeString(out, nonNull(entry.title));
+                        writeString(out, nonNull(entry.album));
+                    }
+                }
+            }
+            try {
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            modified = true;
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Unknown cache format");
+            }
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unknown cache version " + version);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in, version);
+                Entry entry = new Entry();
+                entry.kind = in.readByte();
+                entry.size = in.readLong();
+                entry.lastModified = in.readLong();
+                entry.duration = in.readLong();
+                if (entry.kind == KIND_TAGGED) {
+                    entry.author = readString(in, version);
+                    entry.title = readString(in, version);
+                    entry.album = readString(in, version);
+                } else if (entry.kind != KIND_WAV) {
+                    throw new IOException("Unknown entry kind " + entry.kind);
+                }
+                // Earlier versions of this cache also stored relative paths, which depend on the working directory
+                if (Paths.get(key).isAbsolute()) {
+                    entries.put(key, entry);
+                }
+            }
+        }
+    }
+
+    // Length-prefixed UTF-8, unlike writeUTF not limited in length
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int version) throws IOException {
+        if (version == 1) {
+            return in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte kindOf(SampledFile file) {
+        if (file instanceof TaggedFile) {
+            return KIND_TAGGED;
+        }
+        return file instanceof WavFile ? KIND_WAV : 0;
+    }
+
+    // Relative pathnames of play lists name the same file differently depending on the working directory
+    private static String keyOf(SampledFile file) {
+        try {
+            return Paths.get(file.getPathname()).toAbsolutePath().normalize().toString();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private static BasicFileAttributes stat(String path) {
+        try {
+            return Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+
+    private static final class Entry {
+        byte kind;
+        long size;
+        long lastModified;
+        long duration;
+        String author;
+        String title;
+        String album;
+        // Restored or stored since the cache was opened
+        volatile boolean used;
+    }
+}
@@ -0,0 +1,100 @@
+package studiplayer.audio;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads deferred metadata in the background. The most recently requested files are read
+ * first, so the rows the user just scrolled to win over older requests.
+ */
+public class MetadataPrefetcher {
+
+    private final ThreadPoolExecutor executor;
+    private final Set<AudioFile> queued = ConcurrentHashMap.newKeySet();
+    private final Executor callbackExecutor;
+    private final Runnable onLoaded;
+    private final AtomicBoolean notificationPending = new AtomicBoolean();
+
+    /**
+     * For callers that only wait for loadAll and need no notification about prefetched files.
+     */
+    public MetadataPrefetcher(int threads, Executor callbackExecutor) {
+        this(threads, callbackExecutor, () -> {
+        });
+    }
+
+    /**
+     * onLoaded is run on callbackExecutor after files have been read; bursts of reads are coalesced into one call.
+     */
+    public MetadataPrefetcher(int threads, Executor callbackExecutor, Runnable onLoaded) {
+        this.callbackExecutor = callbackExecutor;
+        this.onLoaded = onLoaded;
+        this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LifoQueue(),
+                BackgroundThreads.factory("metadata-prefetcher"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void prefetch(List<? extends AudioFile> files) {
+        for (AudioFile file : files) {
+            if (!file.isMetadataLoaded() && queued.add(file)) {
+                executor.execute(() -> load(file));
+            }
+        }
+    }
+
+    /**
+     * Reads the metadata of all files not read yet, e.g. before sorting, and completes the returned
+     * future on the callback executor; it is complete at once if there is nothing to read.
+     */
+    public CompletableFuture<Void> loadAll(Collection<? extends AudioFile> files) {
+        List<AudioFile> unloaded = new ArrayList<>();
+        for (AudioFile file : files) {
+            if (!file.isMetadataLoaded()) {
+                unloaded.add(file);
+            }
+        }
+        if (unloaded.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> loaded = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                for (AudioFile file : unloaded) {
+                    file.loadMetadata();
+                }
+            } finally {
+                BackgroundThreads.complete(callbackExecutor, loaded, null, null);
+            }
+        });
+        return loaded;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void load(AudioFile file) {
+        try {
+            file.loadMetadata();
+        } finally {
+            queued.remove(file);
+        }
+        if (notificationPending.compareAndSet(false, true)) {
+            callbackExecutor.execute(() -> {
+                notificationPending.set(false);
+                onLoaded.run();
+            });
+        }
+    }
+
+    private static final class LifoQueue extends LinkedBlockingDeque<Runnable> {
+        @Override
+        public boolean offer(Runnable runnable) {
+            return offerFirst(runnable);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package studiplayer.audio;
+
+/**
+ * Times the single-pass AudioFile.parsePathname against the previous implementation on 1M mixed
+ * Windows/Unix pathnames from PathnameParserTest.corpus.
+ * Run with: java studiplayer.audio.PathnameBenchmark
+ */
+public class PathnameBenchmark {
+
+    private static final int SIZE = 1_000_000;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        String[] paths = PathnameParserTest.corpus(SIZE);
+        WavFile file = new WavFile();
+        double legacy = SortBenchmark.median(() -> {
+            for (String path : paths) {
+                PathnameParserTest.parseLegacy(path);
+            }
+        }, RUNS);
+        double singlePass = SortBenchmark.median(() -> {
+            for (String path : paths) {
+                file.parsePathname(path);
+            }
+        }, RUNS);
+        System.out.printf("%d pathnames: previous %.1f ms, single pass %.1f ms, %.2fx%n",
+                SIZE, legacy, singlePass, legacy / singlePass);
+    }
+}
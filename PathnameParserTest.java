@@ -0,0 +1,113 @@
+package studiplayer.audio;
+
+import java.util.Random;
+
+/**
+ * Checks the single-pass AudioFile.parsePathname against the previous implementation, which trimmed,
+ * replaced and normalized the pathname in separate passes, on a mixed Windows/Unix corpus and on
+ * random short pathnames.
+ * Run with: java studiplayer.audio.PathnameParserTest
+ */
+public class PathnameParserTest {
+
+    private static final String RANDOM_CHARS = "/\\ab: .-";
+
+    public static void main(String[] args) {
+        WavFile file = new WavFile();
+        for (String path : corpus(100_000)) {
+            compare(file, path);
+        }
+        Random random = new Random(15);
+        for (int i = 0; i < 1_000_000; i++) {
+            char[] chars = new char[random.nextInt(13)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = RANDOM_CHARS.charAt(random.nextInt(RANDOM_CHARS.length()));
+            }
+            compare(file, new String(chars));
+        }
+        System.out.println("PathnameParserTest passed");
+    }
+
+    /**
+     * Pathnames as found in M3U files: Unix and Windows paths, mixed and repeated separators,
+     * relative paths and surrounding whitespace.
+     */
+    static String[] corpus(int size) {
+        Random random = new Random(size);
+        String[] paths = new String[size];
+        for (int i = 0; i < size; i++) {
+            int artist = random.nextInt(2000);
+            String album = "Album " + random.nextInt(10);
+            String file = String.format("%02d Artist %d - Title %d", random.nextInt(20) + 1, artist, i);
+            switch (i % 4) {
+                case 0:
+                    paths[i] = "/home/user/Music/Artist " + artist + "/" + album + "/" + file + ".mp3";
+                    break;
+                case 1:
+                    paths[i] = "C:\\Users\\user\\Music\\Artist " + artist + "\\" + album + "\\" + file + ".mp3";
+                    break;
+                case 2:
+                    paths[i] = "D:/Music//Artist " + artist + "/" + album + "\\" + file + ".ogg";
+                    break;
+                default:
+                    paths[i] = "  ..\\Music/Artist " + artist + "\\\\" + album + "/ " + file + ".wav  ";
+                    break;
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * The previous parsePathname, returning directory and filename.
+     */
+    static String[] parseLegacy(String path) {
+        path = path.trim();
+        if (path.isEmpty()) {
+            return new String[] { "", "" };
+        }
+        String separator = System.getProperty("file.separator");
+        path = path.replace("\\", separator).replace("/", separator);
+        path = normalizeLegacy(path, separator.charAt(0));
+        if (!isWindowsLegacy() && path.length() > 1 && Character.isLetter(path.charAt(0)) && path.charAt(1) == ':') {
+            String driveLetter = String.valueOf(path.charAt(0));
+            path = path.substring(2);
+            path = separator + driveLetter + path;
+        }
+        int filenameStart = path.lastIndexOf(separator) + 1;
+        while (filenameStart < path.length() && path.charAt(filenameStart) <= ' ') {
+            filenameStart++;
+        }
+        return new String[] { StringPool.intern(path.substring(0, filenameStart)), path.substring(filenameStart) };
+    }
+
+    private static String normalizeLegacy(String path, char separator) {
+        StringBuilder builder = new StringBuilder();
+        boolean lastWasSeparator = false;
+        for (int i = 0; i < path.length(); i++) {
+            char currentChar = path.charAt(i);
+            if (currentChar == separator) {
+                if (!lastWasSeparator) {
+                    builder.append(separator);
+                    lastWasSeparator = true;
+                }
+            } else {
+                builder.append(currentChar);
+                lastWasSeparator = false;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isWindowsLegacy() {
+        return System.getProperty("os.name").toLowerCase().contains("win");
+    }
+
+    private static void compare(WavFile file, String path) {
+        String[] expected = parseLegacy(path);
+        file.parsePathname(path);
+        if (!file.getPathname().equals(expected[0] + expected[1]) || !file.getFilename().equals(expected[1])) {
+            throw new AssertionError("Parsed \"" + path + "\" as \"" + file.getPathname() + "\", \""
+                    + file.getFilename() + "\" instead of \"" + expected[0] + expected[1] + "\", \"" + expected[1] + "\"");
+        }
+    }
+}
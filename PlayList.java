@@ -2,13 +2,58 @@ package studiplayer.audio;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+/**
+ * Play list with a filtered and sorted view. It can be read and changed from any thread: readers use
+ * optimistic reads of a StampedLock, so they neither block nor are blocked by other readers (e.g. the
+ * playback threads looking up the next song) and retry under the lock if a writer interfered. Only a
+ * read that has to build the view takes the write lock. Listeners are notified after the change was
+ * made and the lock released, in the order of the changes, so they may read or change the list again.
+ */
 public class PlayList implements Iterable<AudioFile> {
 
-    private final List<AudioFile> playList = new LinkedList<>();
+    // Larger batches added to a sorted view trigger a rebuild instead of one insertion per file
+    private static final int INCREMENTAL_SORTED_INSERTS = 64;
+    // Larger batches of removals trigger a rebuild instead of one removal per file
+    private static final int INCREMENTAL_REMOVALS = 64;
+    // Number of sort orders of the whole list kept for switching back and forth
+    private static final int CACHED_SORT_ORDERS = 4;
+
+    private final IndexedAudioFileList playList = new IndexedAudioFileList();
+    // Filtered and sorted view of playList for (search, sortSpec), null while it has to be rebuilt
+    private List<AudioFile> view;
+    // Recently used sort orders of the whole playList, dropped when files are added or removed
+    private final Map<SortSpec, List<AudioFile>> sortOrders = new LinkedHashMap<>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SortSpec, List<AudioFile>> eldest) {
+            return size() > CACHED_SORT_ORDERS;
+        }
+    };
+    // Trigram index over playList, built on the first search
+    private SearchIndex searchIndex;
     private int current = 0;
     private String search;
-    private SortCriterion sortCriterion = SortCriterion.DEFAULT;
+    // Lower-cased search, null if everything matches
+    private String searchQuery;
+    // Incremented whenever files are added or removed
+    private int modifications = 0;
+    private SortSpec sortSpec = SortSpec.DEFAULT;
+    private final List<PlayListListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Guards all fields above; the caches are built lazily, so building the view is a write
+    private final StampedLock lock = new StampedLock();
+    // Orders writers together with the notifications following their changes, reentrant for listeners
+    private final ReentrantLock writers = new ReentrantLock();
+    // Notifications of the running write, sent once the lock was released
+    private final List<Runnable> pendingEvents = new ArrayList<>();
 
     public PlayList() {
     }
@@ -23,63 +68,383 @@ public class PlayList implements Iterable<AudioFile> {
 
 
     public void add(AudioFile file) {
+        write(() -> {
+            int index = addFile(file);
+            if (index != -1) {
+                fireInserted(index, file);
+            }
+        });
+    }
+
+    public void addAll(Collection<? extends AudioFile> files) {
+        write(() -> {
+            boolean rebuild = view != null && !sortSpec.isDefault() && files.size() > INCREMENTAL_SORTED_INSERTS;
+            if (rebuild) {
+                view = null;
+            }
+            // Files inserted one after the other into the view are sent as one range
+            int rangeStart = -1;
+            List<AudioFile> range = new ArrayList<>();
+            for (AudioFile file : files) {
+                int index = addFile(file);
+                if (index == -1) {
+                    continue;
+                }
+                if (index != rangeStart + range.size()) {
+                    fireInserted(rangeStart, range);
+                    rangeStart = index;
+                    range = new ArrayList<>();
+                }
+                range.add(file);
+            }
+            fireInserted(rangeStart, range);
+            if (rebuild) {
+                fireViewChanged();
+            }
+        });
+    }
+
+    // Returns the index of the file in the view, -1 if it is not part of the view
+    private int addFile(AudioFile file) {
         playList.add(file);
+        modifications++;
+        sortOrders.clear();
+        if (searchIndex != null) {
+            searchIndex.add(file);
+        }
+        if (view != null && ControllablePlayListIterator.matchesQuery(file, searchQuery)) {
+            int index = insertionPoint(file);
+            view.add(index, file);
+            return index;
+        }
+        return -1;
     }
 
     public void remove(AudioFile file) {
-        playList.remove(file);
+        write(() -> removeFile(file));
+    }
+
+    /**
+     * Removes all entries of the given files as one change; many files are removed in one pass
+     * over the list and the view is rebuilt instead of sending one notification per file.
+     */
+    public void removeAll(Collection<? extends AudioFile> files) {
+        write(() -> {
+            if (files.size() <= INCREMENTAL_REMOVALS) {
+                for (AudioFile file : files) {
+                    while (removeFile(file)) {
+                        // Until no entry is left
+                    }
+                }
+                return;
+            }
+            Set<AudioFile> removed = Collections.newSetFromMap(new IdentityHashMap<>(files.size() * 2));
+            removed.addAll(files);
+            if (!playList.removeIf(removed::contains)) {
+                return;
+            }
+            modifications++;
+            sortOrders.clear();
+            searchIndex = null;
+            view = null;
+            fireViewChanged();
+        });
+    }
+
+    private boolean removeFile(AudioFile file) {
+        if (!playList.remove(file)) {
+            return false;
+        }
+        modifications++;
+        sortOrders.clear();
+        if (searchIndex != null) {
+            searchIndex.remove(file);
+        }
+        int index = view != null ? view.indexOf(file) : -1;
+        if (index != -1) {
+            view.remove(index);
+            fireRemoved(index, file);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a file by a new version, e.g. after it was retagged on disk. The new file takes
+     * the position of the old one in the list and moves within the view as its sort key demands.
+     */
+    public void replace(AudioFile oldFile, AudioFile newFile) {
+        write(() -> replaceFile(oldFile, newFile));
+    }
+
+    private void replaceFile(AudioFile oldFile, AudioFile newFile) {
+        int index = playList.indexOf(oldFile);
+        if (index == -1) {
+            return;
+        }
+        AudioFile currentFile = playList.isEmpty() ? null : currentFile(view());
+        playList.set(index, newFile);
+        modifications++;
+        sortOrders.clear();
+        if (searchIndex != null) {
+            searchIndex.replace(oldFile, newFile);
+        }
+        if (view == null) {
+            return;
+        }
+        if (playList.hasDuplicates()) {
+            // The view position of a file listed more than once is ambiguous, so the view is rebuilt
+            view = null;
+            int newCurrent = view().indexOf(currentFile == oldFile ? newFile : currentFile);
+            if (newCurrent != -1) {
+                current = newCurrent;
+            }
+            fireViewChanged();
+            return;
+        }
+        int viewIndex = view.indexOf(oldFile);
+        if (viewIndex != -1) {
+            view.remove(viewIndex);
+            fireRemoved(viewIndex, oldFile);
+        }
+        if (ControllablePlayListIterator.matchesQuery(newFile, searchQuery)) {
+            int newIndex = viewPosition(newFile, index);
+            view.add(newIndex, newFile);
+            fireInserted(newIndex, newFile);
+            if (currentFile == oldFile) {
+                current = newIndex;
+            }
+        }
     }
 
     public int size() {
-        return playList.size();
+        return read(playList::size);
     }
 
     public AudioFile currentAudioFile() {
-        if (playList.isEmpty())
-            return null;
-        List<AudioFile> filteredSorted = new ControllablePlayListIterator(playList, search, sortCriterion).getPlayList();
+        return readView(this::currentFile);
+    }
+
+    private AudioFile currentFile(List<AudioFile> filteredSorted) {
         return filteredSorted.isEmpty() ? null : filteredSorted.get(current % filteredSorted.size());
     }
 
     public void nextSong() {
-        if (playList.isEmpty()) {
-            current = 0;
-        } else {
-            List<AudioFile> filteredSorted = new ControllablePlayListIterator(playList, search, sortCriterion).getPlayList();
-            current = (current + 1) % filteredSorted.size();
+        write(() -> {
+            List<AudioFile> filteredSorted = view();
+            if (filteredSorted.isEmpty()) {
+                current = 0;
+            } else {
+                current = (current + 1) % filteredSorted.size();
+            }
+        });
+    }
+
+    /**
+     * Returns the file that follows previous in the view, wrapping around like nextSong, without
+     * changing the current file; the file after the current one if previous is not in the view.
+     */
+    public AudioFile peekNext(AudioFile previous) {
+        return readView(filteredSorted -> {
+            if (filteredSorted.isEmpty()) {
+                return null;
+            }
+            int index = filteredSorted.indexOf(previous);
+            if (index == -1) {
+                index = current % filteredSorted.size();
+            }
+            return filteredSorted.get((index + 1) % filteredSorted.size());
+        });
+    }
+
+    /**
+     * Reads fields with an optimistic read, which is repeated under the read lock if a writer
+     * interfered; the reader may then have seen a torn state and thrown, which is discarded.
+     */
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Torn by a concurrent writer
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
         }
     }
 
-    public void loadFromM3U(String m3uPathName) throws IOException {
+    // Reads the view like read, under the write lock if the view has to be built first
+    private <T> T readView(Function<List<AudioFile>, T> reader) {
+        Optional<T> result = read(() -> view != null ? Optional.ofNullable(reader.apply(view)) : null);
+        if (result != null) {
+            return result.orElse(null);
+        }
+        long stamp = lock.writeLock();
+        try {
+            return reader.apply(view());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
 
-        File file = new File(m3uPathName);
-        if (!file.exists()) {
-            throw new IOException("PlayList file does not exist: " + m3uPathName);
+    /**
+     * Changes the list under the write lock and then sends the notifications of the change.
+     */
+    private void write(Runnable change) {
+        writers.lock();
+        try {
+            List<Runnable> events;
+            long stamp = lock.writeLock();
+            try {
+                change.run();
+            } finally {
+                events = new ArrayList<>(pendingEvents);
+                pendingEvents.clear();
+                lock.unlockWrite(stamp);
+            }
+            for (Runnable event : events) {
+                event.run();
+            }
+        } finally {
+            writers.unlock();
         }
+    }
 
-        try (BufferedReader playListReader = new BufferedReader(new FileReader(file))) {
-            playList.clear();
-            current = 0;
-            String line;
-            while ((line = playListReader.readLine()) != null) {
-                if (line.startsWith("#") || line.trim().isEmpty())
-                    continue;
-                try {
-                    AudioFile newFile = AudioFileFactory.createAudioFile(line);
-                    playList.add(newFile);
-                } catch (NotPlayableException e) {
-                    System.err.println("Cannot load audio file: " + line + " - " + e.getMessage());
-                    e.printStackTrace(System.err);
+    /**
+     * Returns the filtered and sorted view, building it only if the list, the search text
+     * or the sort order changed since it was last built.
+     */
+    private List<AudioFile> view() {
+        if (view == null) {
+            if (searchQuery == null) {
+                view = new ArrayList<>(sortOrder());
+            } else {
+                if (searchIndex == null) {
+                    searchIndex = new SearchIndex(playList);
                 }
+                view = sorted(searchIndex.search(searchQuery));
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Sorts matches given in play list order. Many matches are taken from the cached sort order
+     * of the whole list, which is a linear pass once that order is known.
+     */
+    private List<AudioFile> sorted(List<AudioFile> matches) {
+        if (sortSpec.isDefault()) {
+            return matches;
+        }
+        int m = matches.size();
+        boolean sortMatches = !sortOrders.containsKey(sortSpec)
+                && (long) m * (32 - Integer.numberOfLeadingZeros(m)) < playList.size();
+        if (m < 2 || sortMatches) {
+            SortEngine.sort(matches, sortSpec);
+            return matches;
+        }
+        Set<AudioFile> matching = Collections.newSetFromMap(new IdentityHashMap<>(m * 2));
+        matching.addAll(matches);
+        return ControllablePlayListIterator.filter(sortOrder(), matching::contains, null);
+    }
+
+    // The whole list in the current sort order, shared with the cache and never modified
+    private List<AudioFile> sortOrder() {
+        if (sortSpec.isDefault()) {
+            return playList;
+        }
+        List<AudioFile> order = sortOrders.get(sortSpec);
+        if (order == null) {
+            order = new ArrayList<>(playList);
+            SortEngine.sort(order, sortSpec);
+            sortOrders.put(sortSpec, order);
+        }
+        return order;
+    }
+
+    /**
+     * Position at which a new file has to be inserted into the view so that the view equals
+     * a stable sort of the list with the file appended at its end.
+     */
+    private int insertionPoint(AudioFile file) {
+        Comparator<AudioFile> comparator = sortSpec.comparator();
+        if (comparator == null) {
+            return view.size();
+        }
+        int low = 0;
+        int high = view.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(view.get(mid), file) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Position of the file at index of the list in the view, which is ordered by the sort spec and then
+    // by position in the list; only used while every file is listed once
+    private int viewPosition(AudioFile file, int index) {
+        Comparator<AudioFile> comparator = sortSpec.comparator();
+        int low = 0;
+        int high = view.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            AudioFile other = view.get(mid);
+            int result = comparator != null ? comparator.compare(other, file) : 0;
+            if (result < 0 || result == 0 && playList.indexOf(other) < index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public void loadFromM3U(String m3uPathName) throws IOException {
+        try {
+            new M3ULoader().load(m3uPathName, this, Runnable::run, null).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
-        } catch (IOException ex) {
-            throw new IOException("Error reading M3U file: " + ex.getMessage(), ex);
+            throw e;
         }
     }
 
+    /**
+     * Loads the M3U file in the background. Entries are added in M3U order, in batches, on
+     * callbackExecutor, which also receives the progress reports and completes the returned future.
+     */
+    public CompletableFuture<PlayList> loadFromM3UAsync(String m3uPathName, Executor callbackExecutor,
+                                                        M3ULoader.ProgressListener listener) {
+        return new M3ULoader().load(m3uPathName, this, callbackExecutor, listener);
+    }
+
+    void clear() {
+        write(() -> {
+            playList.clear();
+            modifications++;
+            sortOrders.clear();
+            searchIndex = null;
+            view = null;
+            current = 0;
+            fireViewChanged();
+        });
+    }
+
     public void saveAsM3U(String pathName) {
         try (BufferedWriter playListWriter = new BufferedWriter(new FileWriter(pathName))) {
-            for (AudioFile audioFile : playList) {
+            for (AudioFile audioFile : getList()) {
                 playListWriter.write(audioFile.getPathname() + "\n");
             }
             playListWriter.flush();
@@ -89,39 +454,180 @@ public class PlayList implements Iterable<AudioFile> {
     }
 
     public List<AudioFile> getList() {
-        return new ArrayList<>(playList); // Return a copy to prevent external modifications
+        return read(() -> new ArrayList<>(playList)); // Return a copy to prevent external modifications
     }
 
     public int getCurrent() {
-        return current;
+        return read(() -> current);
     }
 
     public void setCurrent(int current) {
-        if (current >= 0 && current < playList.size()) {
-            this.current = current;
-        }
+        write(() -> {
+            if (current >= 0 && current < playList.size()) {
+                this.current = current;
+            }
+        });
     }
 
     public SortCriterion getSortCriterion() {
-        return sortCriterion;
+        return getSortSpec().getPrimaryCriterion();
     }
 
     public void setSortCriterion(SortCriterion sort) {
-        this.sortCriterion = sort != null ? sort : SortCriterion.DEFAULT;
+        setSortSpec(SortSpec.of(sort));
+    }
+
+    public SortSpec getSortSpec() {
+        return read(() -> sortSpec);
+    }
+
+    /**
+     * Sets a composite sort order. Switching back to one of the last few orders reuses
+     * its cached permutation instead of sorting again.
+     */
+    public void setSortSpec(SortSpec sort) {
+        SortSpec newSpec = sort != null ? sort : SortSpec.DEFAULT;
+        write(() -> {
+            if (!newSpec.equals(sortSpec)) {
+                sortSpec = newSpec;
+                view = null;
+                fireViewChanged();
+            }
+        });
     }
 
     public String getSearch() {
-        return search;
+        return read(() -> search);
     }
 
     public void setSearch(String search) {
-        this.search = search.trim();
-        updateCurrentIndexForFilteredView();
+        String newSearch = search.trim();
+        write(() -> {
+            boolean changed = !newSearch.equals(this.search);
+            if (changed) {
+                this.search = newSearch;
+                searchQuery = ControllablePlayListIterator.normalizeSearch(newSearch);
+                view = null;
+            }
+            updateCurrentIndexForFilteredView();
+            if (changed) {
+                fireViewChanged();
+            }
+        });
+    }
+
+    /**
+     * Sets the search together with its matches, computed elsewhere in play list order,
+     * so the view does not have to be filtered again. Returns false without a change if the
+     * list was modified since the matches were computed at the given modification count.
+     */
+    boolean setSearch(String search, List<AudioFile> matches, int expectedModifications) {
+        boolean[] applied = new boolean[1];
+        write(() -> {
+            if (modifications != expectedModifications) {
+                return;
+            }
+            this.search = search.trim();
+            searchQuery = ControllablePlayListIterator.normalizeSearch(this.search);
+            view = sorted(new ArrayList<>(matches));
+            updateCurrentIndexForFilteredView();
+            fireViewChanged();
+            applied[0] = true;
+        });
+        return applied[0];
+    }
+
+    public void addListener(PlayListListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(PlayListListener listener) {
+        listeners.remove(listener);
+    }
+
+    // The fire methods queue notifications while the write lock is held
+    private void fireInserted(int index, AudioFile file) {
+        pendingEvents.add(() -> {
+            for (PlayListListener listener : listeners) {
+                listener.fileInserted(index, file);
+            }
+        });
+    }
+
+    private void fireInserted(int index, List<AudioFile> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        pendingEvents.add(() -> {
+            for (PlayListListener listener : listeners) {
+                listener.filesInserted(index, files);
+            }
+        });
+    }
+
+    private void fireRemoved(int index, AudioFile file) {
+        pendingEvents.add(() -> {
+            for (PlayListListener listener : listeners) {
+                listener.fileRemoved(index, file);
+            }
+        });
+    }
+
+    private void fireViewChanged() {
+        pendingEvents.add(() -> {
+            for (PlayListListener listener : listeners) {
+                listener.viewChanged();
+            }
+        });
+    }
+
+    int getModifications() {
+        return read(() -> modifications);
+    }
+
+    // Whether the view is sorted or filtered by metadata, or a search index exists, which then has to be
+    // read before files are added
+    boolean needsMetadata() {
+        return read(() -> !sortSpec.isDefault() || searchQuery != null || searchIndex != null);
+    }
+
+    /**
+     * Looks up the files matching a normalized query in the search index, in play list order, together
+     * with the modification count they belong to. Meant for threads other than the callback thread, since
+     * building the index reads the search keys of every file.
+     */
+    Matches findMatches(String query) {
+        long stamp = lock.readLock();
+        try {
+            if (searchIndex != null) {
+                return new Matches(searchIndex.search(query), modifications);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        stamp = lock.writeLock();
+        try {
+            if (searchIndex == null) {
+                searchIndex = new SearchIndex(playList);
+            }
+            return new Matches(searchIndex.search(query), modifications);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    static final class Matches {
+        final List<AudioFile> files;
+        final int modifications;
+
+        Matches(List<AudioFile> files, int modifications) {
+            this.files = files;
+            this.modifications = modifications;
+        }
     }
 
     private void updateCurrentIndexForFilteredView() {
-        List<AudioFile> filteredList = new ControllablePlayListIterator(playList, search, sortCriterion).getPlayList();
-        ;
+        List<AudioFile> filteredList = view();
         if (!filteredList.isEmpty() && !playList.isEmpty()) {
             AudioFile currentFile = playList.get(current % playList.size());
             current = filteredList.indexOf(currentFile);
@@ -134,19 +640,21 @@ public class PlayList implements Iterable<AudioFile> {
     }
 
     public Iterator<AudioFile> iterator() {
-        return new ControllablePlayListIterator(playList, search, sortCriterion);
+        // The iterator works on a copy of the view
+        return readView(ControllablePlayListIterator::new);
     }
 
     public void jumpToAudioFile(AudioFile file) {
-        List<AudioFile> filteredSorted = new ControllablePlayListIterator(playList, search, sortCriterion).getPlayList();
-        int index = filteredSorted.indexOf(file);
-        if (index != -1) {
-            current = index;
-        }
+        write(() -> {
+            int index = view().indexOf(file);
+            if (index != -1) {
+                current = index;
+            }
+        });
     }
 
     @Override
     public String toString() {
-        return playList.toString();
+        return read(playList::toString);
     }
 }
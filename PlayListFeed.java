@@ -0,0 +1,100 @@
+package studiplayer.audio;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Hands the changes of a background loader to a PlayList on the callback executor, in the order they
+ * were submitted. While the list is sorted or searched, the metadata of the files a change adds is read
+ * on a background thread first, so placing them never reads tags on the callback thread.
+ */
+final class PlayListFeed {
+
+    // Reads metadata of files whose list started sorting or searching after they were submitted
+    private static final ExecutorService READER = Executors.newCachedThreadPool(BackgroundThreads.factory("playlist-feed"));
+
+    private final PlayList target;
+    private final Executor callbackExecutor;
+    // Completes once the change submitted last was applied
+    private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+
+    PlayListFeed(PlayList target, Executor callbackExecutor) {
+        this.target = target;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Runs change on the callback executor after the changes submitted before.
+     */
+    void submit(Runnable change) {
+        submit(List.of(), change);
+    }
+
+    /**
+     * Runs change, which adds files to the target, on the callback executor after the changes submitted
+     * before. Called on a background thread, which reads the metadata of the files if the target needs it.
+     */
+    void submit(Collection<? extends AudioFile> files, Runnable change) {
+        if (target.needsMetadata()) {
+            readMetadata(files);
+        }
+        CompletableFuture<Void> applied = new CompletableFuture<>();
+        CompletableFuture<Void> previous;
+        synchronized (this) {
+            previous = last;
+            last = applied;
+        }
+        previous.thenRun(() -> apply(files, change, applied));
+    }
+
+    /**
+     * Completes future on the callback executor after the changes submitted before; exceptionally if
+     * failure is not null.
+     */
+    <T> void complete(CompletableFuture<T> future, T value, Throwable failure) {
+        submit(() -> {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(value);
+            }
+        });
+    }
+
+    private void apply(Collection<? extends AudioFile> files, Runnable change, CompletableFuture<Void> applied) {
+        callbackExecutor.execute(() -> {
+            // The target may have started sorting or searching since the files were submitted
+            if (target.needsMetadata() && !isMetadataLoaded(files)) {
+                READER.execute(() -> {
+                    readMetadata(files);
+                    apply(files, change, applied);
+                });
+                return;
+            }
+            try {
+                change.run();
+            } finally {
+                applied.complete(null);
+            }
+        });
+    }
+
+    private static boolean isMetadataLoaded(Collection<? extends AudioFile> files) {
+        for (AudioFile file : files) {
+            if (!file.isMetadataLoaded()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readMetadata(Collection<? extends AudioFile> files) {
+        for (AudioFile file : files) {
+            file.loadMetadata();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package studiplayer.audio;
+
+import java.util.List;
+
+/**
+ * Receives changes of the filtered and sorted view of a PlayList, on the thread that changed the list.
+ * Indices refer to the view as returned by PlayList.iterator().
+ */
+public interface PlayListListener {
+
+    void fileInserted(int index, AudioFile file);
+
+    /**
+     * Files were inserted one after the other starting at index, e.g. by PlayList.addAll.
+     */
+    default void filesInserted(int index, List<AudioFile> files) {
+        for (int i = 0; i < files.size(); i++) {
+            fileInserted(index + i, files.get(i));
+        }
+    }
+
+    void fileRemoved(int index, AudioFile file);
+
+    /**
+     * The search, the sort order or many entries changed at once; the view has to be read again.
+     */
+    void viewChanged();
+}
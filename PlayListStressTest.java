@@ -0,0 +1,210 @@
+package studiplayer.audio;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Changes a PlayList from two writer threads (add, remove, replace, sort, search) while three reader
+ * threads look up the current and next file and iterate, as the playback threads do. Checks that no
+ * reader fails or sees a foreign file, that every notification matches the view it describes, and that
+ * the incrementally maintained view equals a freshly built one at the end.
+ * Run with: java studiplayer.audio.PlayListStressTest
+ */
+public class PlayListStressTest {
+
+    private static final int FILES = 2000;
+    private static final int WRITES = 10000;
+    private static final int READERS = 3;
+
+    public static void main(String[] args) throws Exception {
+        List<AudioFile> files = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            String displayTitle = "Artist" + (i % 50) + " - Title" + i;
+            files.add(TestFiles.file(displayTitle, i % 300));
+        }
+        Set<AudioFile> known = ConcurrentHashMap.newKeySet();
+        known.addAll(files);
+
+        PlayList playList = new PlayList();
+        playList.addAll(files);
+        Shadow shadow = new Shadow(playList);
+        playList.addListener(shadow);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicLong reads = new AtomicLong();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 2; w++) {
+            Random random = new Random(w);
+            writers.add(new Thread(() -> write(playList, files, random, errors), "writer-" + w));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(new Thread(() -> {
+                while (!done.get()) {
+                    try {
+                        read(playList, known, errors);
+                        reads.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        errors.incrementAndGet();
+                    }
+                }
+            }, "reader-" + r));
+        }
+        readers.forEach(Thread::start);
+        writers.forEach(Thread::start);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        check(errors.get() == 0, errors + " errors");
+        check(shadow.mismatches == 0, shadow.mismatches + " notifications did not match the view");
+        List<AudioFile> view = snapshot(playList);
+        check(shadow.rows.equals(view), "notified rows differ from the view");
+        check(view.equals(rebuiltView(playList)), "view differs from a rebuilt view");
+        System.out.println("PlayListStressTest passed: " + reads + " reads, " + shadow.events + " notifications");
+    }
+
+    private static void write(PlayList playList, List<AudioFile> files, Random random, AtomicInteger errors) {
+        try {
+            for (int i = 0; i < WRITES; i++) {
+                AudioFile file = files.get(random.nextInt(files.size()));
+                switch (random.nextInt(8)) {
+                    case 0:
+                        playList.remove(file);
+                        break;
+                    case 1:
+                        playList.add(file);
+                        break;
+                    case 2:
+                        playList.nextSong();
+                        break;
+                    case 3:
+                        SortCriterion[] criteria = SortCriterion.values();
+                        playList.setSortCriterion(criteria[random.nextInt(criteria.length)]);
+                        break;
+                    case 4:
+                        playList.setSearch(random.nextBoolean() ? "" : "artist" + random.nextInt(50));
+                        break;
+                    case 5:
+                        int from = random.nextInt(files.size() - 100);
+                        List<AudioFile> batch = files.subList(from, from + random.nextInt(100));
+                        if (random.nextBoolean()) {
+                            playList.addAll(batch);
+                        } else {
+                            playList.removeAll(batch);
+                        }
+                        break;
+                    default:
+                        playList.replace(file, files.get(random.nextInt(files.size())));
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            errors.incrementAndGet();
+        }
+    }
+
+    private static void read(PlayList playList, Set<AudioFile> known, AtomicInteger errors) {
+        AudioFile current = playList.currentAudioFile();
+        AudioFile next = playList.peekNext(current);
+        if (current != null && !known.contains(current) || next != null && !known.contains(next)) {
+            errors.incrementAndGet();
+        }
+        for (AudioFile file : playList.getList()) {
+            if (!known.contains(file)) {
+                errors.incrementAndGet();
+            }
+        }
+        Iterator<AudioFile> iterator = playList.iterator();
+        while (iterator.hasNext()) {
+            if (!known.contains(iterator.next())) {
+                errors.incrementAndGet();
+            }
+        }
+        playList.size();
+    }
+
+    private static List<AudioFile> snapshot(PlayList playList) {
+        List<AudioFile> view = new ArrayList<>();
+        playList.iterator().forEachRemaining(view::add);
+        return view;
+    }
+
+    private static List<AudioFile> rebuiltView(PlayList playList) {
+        PlayList rebuilt = new PlayList();
+        rebuilt.addAll(playList.getList());
+        rebuilt.setSortSpec(playList.getSortSpec());
+        rebuilt.setSearch(playList.getSearch() != null ? playList.getSearch() : "");
+        return snapshot(rebuilt);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    // Applies the notifications to a copy of the view and checks each against it; notifications are
+    // sent one writer at a time, so the view can be read again on viewChanged
+    private static final class Shadow implements PlayListListener {
+        private final PlayList playList;
+        private final List<AudioFile> rows;
+        private int mismatches = 0;
+        private int events = 0;
+
+        Shadow(PlayList playList) {
+            this.playList = playList;
+            this.rows = snapshot(playList);
+        }
+
+        @Override
+        public void fileInserted(int index, AudioFile file) {
+            events++;
+            if (index < 0 || index > rows.size()) {
+                mismatches++;
+                return;
+            }
+            rows.add(index, file);
+        }
+
+        @Override
+        public void filesInserted(int index, List<AudioFile> files) {
+            events++;
+            if (index < 0 || index > rows.size()) {
+                mismatches++;
+                return;
+            }
+            rows.addAll(index, files);
+        }
+
+        @Override
+        public void fileRemoved(int index, AudioFile file) {
+            events++;
+            if (index < 0 || index >= rows.size() || rows.get(index) != file) {
+                mismatches++;
+                return;
+            }
+            rows.remove(index);
+        }
+
+        @Override
+        public void viewChanged() {
+            events++;
+            rows.clear();
+            rows.addAll(snapshot(playList));
+        }
+    }
+}
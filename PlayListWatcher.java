@@ -0,0 +1,233 @@
+package studiplayer.audio;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a PlayList in sync with the watched directories: audio files created there are added,
+ * deleted files are removed and modified files are replaced by a freshly read version.
+ * Events are coalesced until the directories were quiet for a moment (or at most a few seconds
+ * of continuous events, e.g. a large copy). The burst is then read and matched against the play
+ * list on the watcher thread and applied as one batch on the callback executor.
+ * Directories created inside a watched directory are watched as well.
+ */
+public class PlayListWatcher {
+
+    private static final long QUIET_PERIOD_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 5000;
+
+    private final PlayList playList;
+    private final PlayListFeed feed;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    // Held while registering a directory and while looking up the directory of a signalled key, since
+    // a key can be signalled before it is known
+    private final Object registration = new Object();
+
+    // Changed pathnames and directories whose events were lost, only used by the watcher thread
+    private Set<String> pending = new LinkedHashSet<>();
+    private Set<Path> overflowed = new LinkedHashSet<>();
+    private long firstPending;
+
+    public PlayListWatcher(PlayList playList, Executor callbackExecutor) throws IOException {
+        this.playList = playList;
+        this.feed = new PlayListFeed(playList, callbackExecutor);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        BackgroundThreads.start("playlist-watcher", this::run);
+    }
+
+    /**
+     * Watches the directories containing the given files.
+     */
+    public void watchDirectoriesOf(List<AudioFile> files) {
+        Set<Path> parents = new LinkedHashSet<>();
+        for (AudioFile file : files) {
+            Path parent = absolutePath(file.getPathname()).getParent();
+            if (parent != null) {
+                parents.add(parent);
+            }
+        }
+        for (Path parent : parents) {
+            watch(parent);
+        }
+    }
+
+    public void watch(Path directory) {
+        directory = directory.toAbsolutePath().normalize();
+        try {
+            synchronized (registration) {
+                WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, directory);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot watch directory: " + directory + " - " + e);
+        }
+    }
+
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Cannot close watch service: " + e);
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty() && overflowed.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    collect(key);
+                }
+                boolean hasPending = !pending.isEmpty() || !overflowed.isEmpty();
+                if (hasPending && (key == null || System.currentTimeMillis() - firstPending >= MAX_DELAY_MILLIS)) {
+                    flush();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private void collect(WatchKey key) {
+        Path directory;
+        synchronized (registration) {
+            directory = directories.get(key);
+        }
+        if (directory == null) {
+            key.cancel();
+            return;
+        }
+        if (pending.isEmpty() && overflowed.isEmpty()) {
+            firstPending = System.currentTimeMillis();
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflowed.add(directory);
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                watchTree(path);
+            } else if (AudioFileFactory.isSupported(path.toString())) {
+                pending.add(path.toString());
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    // Watches a new directory and its subdirectories, files copied before they were watched are picked up now
+    private void watchTree(Path directory) {
+        watch(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path)) {
+                    watchTree(path);
+                } else if (AudioFileFactory.isSupported(path.toString())) {
+                    pending.add(path.toString());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot list directory: " + directory + " - " + e);
+        }
+    }
+
+    // Reads the changed files and matches them against the play list on the watcher thread, then
+    // applies them to the play list as one batch
+    private void flush() {
+        Map<Path, Set<String>> listings = new HashMap<>();
+        for (Path directory : overflowed) {
+            Set<String> listing = new LinkedHashSet<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    if (AudioFileFactory.isSupported(path.toString())) {
+                        listing.add(path.toString());
+                    }
+                }
+            } catch (IOException e) {
+                // The directory is gone, so are its files
+            }
+            pending.addAll(listing);
+            listings.put(directory, listing);
+        }
+
+        // Entries of the play list by absolute pathname, a file may be listed more than once
+        Map<String, List<AudioFile>> entries = new HashMap<>();
+        for (AudioFile file : playList.getList()) {
+            entries.computeIfAbsent(absolutePath(file.getPathname()).toString(), k -> new ArrayList<>()).add(file);
+        }
+
+        Map<AudioFile, AudioFile> replaced = new LinkedHashMap<>();
+        List<AudioFile> removed = new ArrayList<>();
+        List<AudioFile> added = new ArrayList<>();
+        for (String pathname : pending) {
+            List<AudioFile> listed = entries.getOrDefault(pathname, List.of());
+            if (!Files.exists(Path.of(pathname))) {
+                removed.addAll(listed);
+                continue;
+            }
+            try {
+                if (listed.isEmpty()) {
+                    added.add(AudioFileFactory.createAudioFile(pathname));
+                }
+                // Every entry gets its own new version, so duplicates stay separate entries
+                for (AudioFile file : listed) {
+                    replaced.put(file, AudioFileFactory.createAudioFile(pathname));
+                }
+            } catch (NotPlayableException | RuntimeException e) {
+                // Probably still being written, it is read again on its next modification
+            }
+        }
+        // Files of the play list in the listed directories that are not part of the listing were
+        // deleted while events were lost
+        if (!listings.isEmpty()) {
+            for (Map.Entry<String, List<AudioFile>> entry : entries.entrySet()) {
+                Path path = Path.of(entry.getKey());
+                Set<String> listing = listings.get(path.getParent());
+                if (listing != null && !listing.contains(entry.getKey())) {
+                    removed.addAll(entry.getValue());
+                }
+            }
+        }
+        pending = new LinkedHashSet<>();
+        overflowed = new LinkedHashSet<>();
+        List<AudioFile> created = new ArrayList<>(added);
+        created.addAll(replaced.values());
+        feed.submit(created, () -> apply(replaced, removed, added));
+    }
+
+    // Entries that left the play list in the meantime are skipped by replace and removeAll
+    private void apply(Map<AudioFile, AudioFile> replaced, List<AudioFile> removed, List<AudioFile> added) {
+        replaced.forEach(playList::replace);
+        playList.removeAll(removed);
+        playList.addAll(added);
+    }
+
+    // Pathnames of the play list may be relative, events always refer to the absolute path
+    private static Path absolutePath(String pathname) {
+        return Path.of(pathname).toAbsolutePath().normalize();
+    }
+}
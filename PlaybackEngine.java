@@ -0,0 +1,508 @@
+package studiplayer.audio;
+
+import studiplayer.basic.BasicPlayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays audio files through javax.sound.sampled. Every engine has its own playback state and audio
+ * line, so several engines (e.g. a preview and the main player) can play at the same time.
+ * A decoder thread decodes the current file and then the following ones into a lock-free ring buffer
+ * while the current file is still playing, and an output thread feeds the decoded samples into one
+ * continuous SourceDataLine, so consecutive files in the same format join sample-accurately. A change
+ * of format reopens the line. Files javax.sound cannot decode, or that find no audio line, are played
+ * through BasicPlayer. BasicPlayer has one global playback, so only one engine at a time can play such
+ * a file: the others wait until it finished, which serializes e.g. mp3 and ogg playback across engines.
+ * A file played through BasicPlayer is reported as started once it actually plays, not while waiting.
+ * The ring buffer size bounds how far the decoder runs ahead, the line buffer size is the output latency.
+ */
+public class PlaybackEngine {
+
+    /**
+     * Supplies the file to play after previous, called on the decoder thread; null ends playback.
+     */
+    public interface TrackSource {
+        AudioFile next(AudioFile previous) throws InterruptedException;
+    }
+
+    /**
+     * Receives playback events on the output thread; files played through BasicPlayer are reported
+     * as started by the thread that waits for their start.
+     */
+    public interface Listener {
+        void trackStarted(AudioFile file);
+
+        void playbackFinished();
+    }
+
+    public static final int DEFAULT_RING_BUFFER_SIZE = 1 << 20;
+    // About 100 ms at 44.1 kHz 16 bit stereo, so track changes are reported close to when they are heard
+    public static final int DEFAULT_LINE_BUFFER_SIZE = 1 << 14;
+    private static final int CHUNK_SIZE = 1 << 14;
+    private static final AtomicInteger engineCount = new AtomicInteger();
+    // Held by the session playing through BasicPlayer
+    private static final Semaphore BASIC_PLAYER = new Semaphore(1);
+    // BasicPlayer.play gives no notice once it started, so its position is polled for at most this long
+    private static final long FALLBACK_START_TIMEOUT_MILLIS = 2000;
+
+    private final int ringBufferSize;
+    private final int lineBufferSize;
+    private final int id = engineCount.incrementAndGet();
+    private volatile Session session;
+
+    public PlaybackEngine() {
+        this(DEFAULT_RING_BUFFER_SIZE, DEFAULT_LINE_BUFFER_SIZE);
+    }
+
+    public PlaybackEngine(int ringBufferSize, int lineBufferSize) {
+        if (ringBufferSize < CHUNK_SIZE) {
+            throw new IllegalArgumentException("Ring buffer size must be at least " + CHUNK_SIZE + ": " + ringBufferSize);
+        }
+        if (lineBufferSize < 1) {
+            throw new IllegalArgumentException("Line buffer size must be positive: " + lineBufferSize);
+        }
+        this.ringBufferSize = ringBufferSize;
+        this.lineBufferSize = lineBufferSize;
+    }
+
+    /**
+     * Stops the current playback and starts playing first and the files supplied by source after it;
+     * source and listener may be null.
+     */
+    public void play(AudioFile first, TrackSource source, Listener listener) {
+        play(first, 0, source, listener);
+    }
+
+    /**
+     * Like play, but starts first at the given position in microseconds. Files played through
+     * BasicPlayer always start at their beginning.
+     */
+    public void play(AudioFile first, long startPosition, TrackSource source, Listener listener) {
+        stop();
+        Session next = new Session(first, startPosition, source, listener);
+        session = next;
+        next.start();
+    }
+
+    /**
+     * Plays a single file and returns when it was played or playback was stopped.
+     */
+    public void playAndWait(AudioFile file) throws NotPlayableException {
+        stop();
+        Session next = new Session(file, 0, null, null);
+        session = next;
+        next.start();
+        try {
+            next.awaitFinished();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            next.stop();
+        }
+        if (next.failure != null) {
+            throw next.failure;
+        }
+    }
+
+    public void togglePause() {
+        Session current = session;
+        if (current != null) {
+            current.togglePause();
+        }
+    }
+
+    public void stop() {
+        Session current = session;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    public boolean isPaused() {
+        Session current = session;
+        return current != null && current.isPaused();
+    }
+
+    /**
+     * Waits until the last file was played or playback was stopped.
+     */
+    public void awaitFinished() throws InterruptedException {
+        Session current = session;
+        if (current != null) {
+            current.awaitFinished();
+        }
+    }
+
+    /**
+     * Returns the position within the current file in microseconds.
+     */
+    public long getPosition() {
+        Session current = session;
+        return current != null ? current.getPosition() : 0;
+    }
+
+    // Decodes to 16 bit PCM if javax.sound can convert the file's format, otherwise plays it as it is
+    private static AudioInputStream openDecoded(AudioFile file) throws UnsupportedAudioFileException, IOException {
+        AudioInputStream stream = AudioSystem.getAudioInputStream(new File(file.getPathname()));
+        AudioFormat format = stream.getFormat();
+        AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+        if (!format.matches(pcm) && AudioSystem.isConversionSupported(pcm, format)) {
+            return AudioSystem.getAudioInputStream(pcm, stream);
+        }
+        return stream;
+    }
+
+    private static final class Track {
+        private final AudioFile file;
+        // Null for a file played by BasicPlayer
+        private final AudioFormat format;
+        // Frames skipped at the beginning of the file
+        private final long skippedFrames;
+
+        Track(AudioFile file, AudioFormat format, long skippedFrames) {
+            this.file = file;
+            this.format = format;
+            this.skippedFrames = skippedFrames;
+        }
+    }
+
+    // One run of the decoder and output thread, from play until the last file or stop
+    private final class Session {
+        private final TrackSource source;
+        private final Listener listener;
+        private final SpscRingBuffer<Track> ring = new SpscRingBuffer<>(ringBufferSize);
+        private final Object lock = new Object();
+        private final Thread decoder;
+        private final Thread output;
+
+        private volatile boolean stopped = false;
+        private volatile NotPlayableException failure;
+        // Guarded by lock; line is null while no decoded track plays, fallbackFile is the file BasicPlayer plays
+        private boolean paused = false;
+        private SourceDataLine line;
+        private AudioFile fallbackFile;
+        // Whether BasicPlayer started playing fallbackFile, and whether it was paused since
+        private boolean fallbackStarted = false;
+        private boolean fallbackPaused = false;
+        private volatile long trackStartFrame;
+        private volatile float frameRate;
+
+        Session(AudioFile first, long startPosition, TrackSource source, Listener listener) {
+            this.source = source;
+            this.listener = listener;
+            decoder = BackgroundThreads.daemon("playback-decoder-" + id, () -> decode(first, startPosition));
+            output = BackgroundThreads.daemon("playback-output-" + id, this::output);
+        }
+
+        void start() {
+            decoder.start();
+            output.start();
+        }
+
+        void togglePause() {
+            synchronized (lock) {
+                paused = !paused;
+                if (line != null) {
+                    if (paused) {
+                        line.stop();
+                    } else {
+                        line.start();
+                    }
+                }
+                // A pause requested before BasicPlayer started is applied once it started
+                if (fallbackStarted && fallbackPaused != paused) {
+                    BasicPlayer.togglePause();
+                    fallbackPaused = paused;
+                }
+                lock.notifyAll();
+            }
+        }
+
+        boolean isPaused() {
+            synchronized (lock) {
+                return paused;
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            ring.close();
+            synchronized (lock) {
+                if (line != null) {
+                    line.stop();
+                    line.flush();
+                }
+                if (fallbackStarted) {
+                    BasicPlayer.stop();
+                }
+                lock.notifyAll();
+            }
+            // The decoder may wait for the track source
+            decoder.interrupt();
+        }
+
+        void awaitFinished() throws InterruptedException {
+            output.join();
+        }
+
+        long getPosition() {
+            synchronized (lock) {
+                if (fallbackFile != null) {
+                    return BasicPlayer.getPosition();
+                }
+                if (line == null || frameRate <= 0) {
+                    return 0;
+                }
+                long frames = Math.max(0, line.getLongFramePosition() - trackStartFrame);
+                return (long) (frames * 1_000_000L / frameRate);
+            }
+        }
+
+        private void decode(AudioFile first, long startPosition) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            try {
+                AudioFile file = first;
+                long skip = startPosition;
+                while (file != null && !stopped) {
+                    AudioInputStream stream;
+                    try {
+                        stream = openDecoded(file);
+                    } catch (UnsupportedAudioFileException | IOException | IllegalArgumentException e) {
+                        stream = null;
+                    }
+                    if (stream == null) {
+                        // Left to BasicPlayer
+                        ring.mark(new Track(file, null, 0));
+                    } else if (!decodeTrack(file, stream, skip, buffer)) {
+                        return;
+                    }
+                    skip = 0;
+                    file = source != null ? source.next(file) : null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                ring.finish();
+            }
+        }
+
+        /**
+         * Writes the samples of one opened file to the ring buffer; returns false if the buffer was closed.
+         * A file that fails while it is decoded ends early, the part decoded so far is played.
+         */
+        private boolean decodeTrack(AudioFile file, AudioInputStream stream, long skip, byte[] buffer)
+                throws InterruptedException {
+            try (stream) {
+                int frameSize = stream.getFormat().getFrameSize();
+                long skipped = 0;
+                try {
+                    if (skip > 0) {
+                        skipped = skipFrames(stream, (long) (skip / 1_000_000.0 * stream.getFormat().getFrameRate()));
+                    }
+                } finally {
+                    ring.mark(new Track(file, stream.getFormat(), skipped));
+                }
+                int read;
+                while ((read = stream.read(buffer, 0, buffer.length - buffer.length % frameSize)) > 0) {
+                    if (!ring.write(buffer, 0, read)) {
+                        return false;
+                    }
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Cannot decode " + file.getPathname() + ": " + e.getMessage());
+            }
+            return true;
+        }
+
+        // Returns the number of frames actually skipped, which is less at the end of the stream
+        private long skipFrames(AudioInputStream stream, long frames) throws IOException {
+            int frameSize = stream.getFormat().getFrameSize();
+            long remaining = frames * frameSize;
+            while (remaining > 0) {
+                long skipped = stream.skip(remaining);
+                if (skipped <= 0) {
+                    break;
+                }
+                remaining -= skipped;
+            }
+            return frames - remaining / frameSize;
+        }
+
+        private void output() {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            SourceDataLine current = null;
+            try {
+                while (!stopped) {
+                    Track track = ring.nextMark();
+                    if (track != null) {
+                        current = startTrack(track, current);
+                        continue;
+                    }
+                    int frameSize = current != null ? current.getFormat().getFrameSize() : 1;
+                    int read = ring.read(buffer, 0, buffer.length - buffer.length % frameSize);
+                    if (read < 0) {
+                        break;
+                    }
+                    // Without a line the track was played by BasicPlayer and its samples are dropped
+                    if (current != null) {
+                        current.write(buffer, 0, read);
+                    }
+                }
+                if (current != null && !stopped) {
+                    current.drain();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (current != null) {
+                    current.close();
+                }
+                synchronized (lock) {
+                    line = null;
+                }
+                // The decoder may wait for space that will never be freed
+                ring.close();
+            }
+            if (!stopped && listener != null) {
+                listener.playbackFinished();
+            }
+        }
+
+        // Switches to the next track, keeping the line if the track has the line's format
+        private SourceDataLine startTrack(Track track, SourceDataLine current) {
+            if (current != null && (track.format == null || !track.format.matches(current.getFormat()))) {
+                current.drain();
+                current.close();
+                current = null;
+                synchronized (lock) {
+                    line = null;
+                }
+            }
+            if (track.format != null && current == null) {
+                current = openLine(track.format);
+            }
+            if (current == null) {
+                playWithBasicPlayer(track.file);
+                return null;
+            }
+            // Frames written before the track are still to be played when it starts
+            trackStartFrame = current.getLongFramePosition()
+                    + (current.getBufferSize() - current.available()) / current.getFormat().getFrameSize()
+                    - track.skippedFrames;
+            frameRate = track.format.getFrameRate();
+            if (listener != null) {
+                listener.trackStarted(track.file);
+            }
+            return current;
+        }
+
+        private SourceDataLine openLine(AudioFormat format) {
+            try {
+                SourceDataLine opened = AudioSystem.getSourceDataLine(format);
+                opened.open(format, Math.max(lineBufferSize - lineBufferSize % format.getFrameSize(), format.getFrameSize()));
+                synchronized (lock) {
+                    if (!paused) {
+                        opened.start();
+                    }
+                    line = opened;
+                }
+                return opened;
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private void playWithBasicPlayer(AudioFile file) {
+            try {
+                while (!BASIC_PLAYER.tryAcquire(50, TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                synchronized (lock) {
+                    // A paused file starts only once it is resumed
+                    while (paused && !stopped) {
+                        lock.wait();
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    fallbackFile = file;
+                    fallbackStarted = false;
+                    fallbackPaused = false;
+                }
+                Thread guard = BackgroundThreads.start("playback-fallback-" + id,
+                        () -> confirmFallbackStarted(file));
+                try {
+                    BasicPlayer.play(file.getPathname());
+                } catch (Exception e) {
+                    failure = new NotPlayableException(file.getPathname(), "Audio file cannot play");
+                    System.err.println("Cannot play " + file.getPathname() + ": " + e.getMessage());
+                } finally {
+                    synchronized (lock) {
+                        fallbackFile = null;
+                        fallbackStarted = false;
+                    }
+                    guard.interrupt();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                BASIC_PLAYER.release();
+            }
+        }
+
+        /**
+         * Waits until BasicPlayer plays file and then applies a stop or pause that was requested
+         * between the last check and the start of BasicPlayer.play; reports the file as started unless stopped.
+         */
+        private void confirmFallbackStarted(AudioFile file) {
+            long deadline = System.currentTimeMillis() + FALLBACK_START_TIMEOUT_MILLIS;
+            try {
+                while (BasicPlayer.getPosition() == 0 && System.currentTimeMillis() < deadline) {
+                    synchronized (lock) {
+                        if (fallbackFile != file) {
+                            return;
+                        }
+                    }
+                    Thread.sleep(5);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (lock) {
+                if (fallbackFile != file) {
+                    return;
+                }
+                fallbackStarted = true;
+                if (stopped) {
+                    BasicPlayer.stop();
+                    return;
+                }
+                if (paused) {
+                    BasicPlayer.togglePause();
+                    fallbackPaused = true;
+                }
+                // Reported under the lock, so it precedes the events of the output thread once play returns
+                if (listener != null) {
+                    listener.trackStarted(file);
+                }
+            }
+        }
+    }
+}
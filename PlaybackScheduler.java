@@ -0,0 +1,222 @@
+package studiplayer.audio;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Owns the playback state of a player. Commands (play, pause, stop, next, seek) and the events of the
+ * playback engine are queued and processed in order by a single scheduler thread, which is the only
+ * thread that starts, pauses or stops the engine. Listeners are called through the callback executor
+ * (e.g. Platform::runLater), so the scheduler itself does not depend on a UI toolkit.
+ */
+public class PlaybackScheduler {
+
+    public enum State {
+        STOPPED, PLAYING, PAUSED
+    }
+
+    public interface Listener {
+        void trackStarted(AudioFile file);
+
+        void stateChanged(State state);
+    }
+
+    private final PlaybackEngine engine;
+    private final PlaybackEngine.TrackSource trackSource;
+    private final Executor callbackExecutor;
+    private final Listener listener;
+    private final BlockingQueue<Runnable> commands = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    // Written only by the scheduler thread
+    private volatile State state = State.STOPPED;
+    private volatile AudioFile currentFile;
+    // Engine events of earlier runs are ignored
+    private int run = 0;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a scheduler playing through engine; trackSource supplies the file following a file,
+     * or the file to play next if it is given null, and is called on the scheduler and engine threads.
+     */
+    public PlaybackScheduler(PlaybackEngine engine, PlaybackEngine.TrackSource trackSource,
+                             Executor callbackExecutor, Listener listener) {
+        this.engine = engine;
+        this.trackSource = trackSource;
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+        this.thread = BackgroundThreads.start("playback-scheduler", this::run);
+    }
+
+    /**
+     * Plays file from its beginning, or resumes it if it is the paused file.
+     */
+    public void play(AudioFile file) {
+        submit(() -> {
+            if (state == State.PAUSED && file == currentFile) {
+                engine.togglePause();
+                setState(State.PLAYING);
+            } else {
+                start(file, 0, false);
+            }
+        });
+    }
+
+    /**
+     * Resumes the paused file, or plays file from its beginning if stopped; nothing while playing.
+     * The state is checked on the scheduler thread, after all commands queued before.
+     */
+    public void playOrResume(AudioFile file) {
+        submit(() -> {
+            if (state == State.PAUSED) {
+                engine.togglePause();
+                setState(State.PLAYING);
+            } else if (state == State.STOPPED && file != null) {
+                start(file, 0, false);
+            }
+        });
+    }
+
+    public void pause() {
+        submit(() -> {
+            if (state == State.PLAYING) {
+                engine.togglePause();
+                setState(State.PAUSED);
+            }
+        });
+    }
+
+    public void stop() {
+        submit(() -> {
+            run++;
+            engine.stop();
+            currentFile = null;
+            setState(State.STOPPED);
+        });
+    }
+
+    /**
+     * Plays the file following the current one, or the file the track source supplies first if stopped.
+     */
+    public void next() {
+        submit(() -> {
+            AudioFile next = trackSource.next(currentFile);
+            if (next != null) {
+                start(next, 0, false);
+            }
+        });
+    }
+
+    /**
+     * Continues the current file at the given position in microseconds; ignored while stopped.
+     */
+    public void seek(long position) {
+        submit(() -> {
+            if (currentFile == null) {
+                return;
+            }
+            start(currentFile, Math.max(0, position), state == State.PAUSED);
+        });
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public AudioFile getCurrentFile() {
+        return currentFile;
+    }
+
+    /**
+     * Returns the position within the current file in microseconds.
+     */
+    public long getPosition() {
+        return engine.getPosition();
+    }
+
+    /**
+     * Waits until the commands queued so far were processed.
+     */
+    void awaitCommands() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        submit(done::countDown);
+        done.await();
+    }
+
+    /**
+     * Stops the scheduler thread, which stops playback on its way out; later commands are ignored.
+     */
+    public void shutdown() {
+        shutdown = true;
+        thread.interrupt();
+    }
+
+    private void start(AudioFile file, long position, boolean paused) {
+        int started = ++run;
+        currentFile = file;
+        engine.play(file, position, trackSource, new PlaybackEngine.Listener() {
+            @Override
+            public void trackStarted(AudioFile file) {
+                submit(() -> {
+                    if (run == started) {
+                        currentFile = file;
+                        callbackExecutor.execute(() -> listener.trackStarted(file));
+                    }
+                });
+            }
+
+            @Override
+            public void playbackFinished() {
+                submit(() -> {
+                    if (run == started) {
+                        currentFile = null;
+                        setState(State.STOPPED);
+                    }
+                });
+            }
+        });
+        if (paused) {
+            engine.togglePause();
+        }
+        setState(paused ? State.PAUSED : State.PLAYING);
+    }
+
+    private void setState(State newState) {
+        if (state != newState) {
+            state = newState;
+            callbackExecutor.execute(() -> listener.stateChanged(newState));
+        }
+    }
+
+    private void submit(Command command) {
+        commands.add(() -> {
+            try {
+                command.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void run() {
+        try {
+            while (!shutdown && !Thread.currentThread().isInterrupted()) {
+                try {
+                    commands.take().run();
+                } catch (RuntimeException e) {
+                    System.err.println("Playback command failed: " + e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shut down
+        }
+        // After the command that was running, so it cannot start playback again
+        engine.stop();
+    }
+
+    private interface Command {
+        void run() throws InterruptedException;
+    }
+}
@@ -0,0 +1,187 @@
+package studiplayer.audio;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Checks the command ordering of PlaybackScheduler against a fake engine, without audio or JavaFX.
+ * Run with: java studiplayer.audio.PlaybackSchedulerTest
+ */
+public class PlaybackSchedulerTest {
+
+    public static void main(String[] args) throws Exception {
+        AudioFile a = file("a");
+        AudioFile b = file("b");
+        AudioFile c = file("c");
+        List<AudioFile> order = List.of(a, b, c);
+
+        quickStopAndPlayRestarts(a, order);
+        playOrResumeResumesPausedFile(a, b, order);
+        finishedPlaybackStops(a, b, order);
+        eventsOfEarlierRunsAreIgnored(a, b, c, order);
+        seekKeepsPause(a, order);
+        nextFromStoppedAsksTrackSource(a, b, order);
+        shutdownStopsOnSchedulerThread(a, order);
+        System.out.println("PlaybackSchedulerTest passed");
+    }
+
+    private static void quickStopAndPlayRestarts(AudioFile a, List<AudioFile> order) throws Exception {
+        Fixture f = new Fixture(order);
+        f.scheduler.playOrResume(a);
+        f.scheduler.stop();
+        f.scheduler.playOrResume(a);
+        f.sync();
+        check(f.scheduler.getState() == PlaybackScheduler.State.PLAYING, "playing after stop and play");
+        check(f.engine.calls.equals(List.of("play a 0", "stop", "play a 0")), "engine calls " + f.engine.calls);
+        check(f.states.equals(List.of("PLAYING", "STOPPED", "PLAYING")), "states " + f.states);
+        f.scheduler.shutdown();
+    }
+
+    private static void playOrResumeResumesPausedFile(AudioFile a, AudioFile b, List<AudioFile> order) throws Exception {
+        Fixture f = new Fixture(order);
+        f.scheduler.playOrResume(a);
+        f.scheduler.pause();
+        f.scheduler.playOrResume(b);
+        f.scheduler.playOrResume(b);
+        f.sync();
+        check(f.engine.calls.equals(List.of("play a 0", "togglePause", "togglePause")), "engine calls " + f.engine.calls);
+        check(f.states.equals(List.of("PLAYING", "PAUSED", "PLAYING")), "states " + f.states);
+        f.scheduler.shutdown();
+    }
+
+    private static void finishedPlaybackStops(AudioFile a, AudioFile b, List<AudioFile> order) throws Exception {
+        Fixture f = new Fixture(order);
+        f.scheduler.playOrResume(a);
+        f.sync();
+        f.engine.listener.trackStarted(a);
+        f.engine.listener.trackStarted(b);
+        f.engine.listener.playbackFinished();
+        f.sync();
+        check(f.tracks.equals(List.of(a, b)), "tracks " + f.tracks);
+        check(f.scheduler.getState() == PlaybackScheduler.State.STOPPED, "stopped after the last track");
+        check(f.scheduler.getCurrentFile() == null, "no current file after the last track");
+        f.scheduler.shutdown();
+    }
+
+    private static void eventsOfEarlierRunsAreIgnored(AudioFile a, AudioFile b, AudioFile c,
+                                                      List<AudioFile> order) throws Exception {
+        Fixture f = new Fixture(order);
+        f.scheduler.playOrResume(a);
+        f.sync();
+        PlaybackEngine.Listener earlier = f.engine.listener;
+        f.scheduler.play(c);
+        f.sync();
+        earlier.trackStarted(b);
+        earlier.playbackFinished();
+        f.sync();
+        check(f.tracks.isEmpty(), "tracks of an earlier run " + f.tracks);
+        check(f.scheduler.getState() == PlaybackScheduler.State.PLAYING, "still playing the new run");
+        check(f.scheduler.getCurrentFile() == c, "current file of the new run");
+        f.scheduler.shutdown();
+    }
+
+    private static void seekKeepsPause(AudioFile a, List<AudioFile> order) throws Exception {
+        Fixture f = new Fixture(order);
+        f.scheduler.playOrResume(a);
+        f.scheduler.pause();
+        f.scheduler.seek(5_000_000);
+        f.sync();
+        check(f.engine.calls.equals(List.of("play a 0", "togglePause", "play a 5000000", "togglePause")),
+                "engine calls " + f.engine.calls);
+        check(f.scheduler.getState() == PlaybackScheduler.State.PAUSED, "paused after seek");
+        check(f.states.equals(List.of("PLAYING", "PAUSED")), "states " + f.states);
+        f.scheduler.shutdown();
+    }
+
+    private static void nextFromStoppedAsksTrackSource(AudioFile a, AudioFile b, List<AudioFile> order) throws Exception {
+        Fixture f = new Fixture(order);
+        f.scheduler.next();
+        f.sync();
+        check(f.engine.calls.equals(List.of("play a 0")), "engine calls " + f.engine.calls);
+        f.scheduler.next();
+        f.sync();
+        check(f.engine.calls.equals(List.of("play a 0", "play b 0")), "engine calls " + f.engine.calls);
+        f.scheduler.shutdown();
+    }
+
+    private static void shutdownStopsOnSchedulerThread(AudioFile a, List<AudioFile> order) throws Exception {
+        Fixture f = new Fixture(order);
+        f.scheduler.playOrResume(a);
+        f.sync();
+        f.scheduler.shutdown();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (f.engine.stopThread == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        check(f.engine.stopThread != null && f.engine.stopThread != Thread.currentThread(),
+                "stopped by " + f.engine.stopThread);
+        check(f.engine.calls.equals(List.of("play a 0", "stop")), "engine calls " + f.engine.calls);
+    }
+
+    private static AudioFile file(String title) throws NotPlayableException {
+        return TestFiles.file("Artist - " + title, 1);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static final class Fixture {
+        private final FakeEngine engine = new FakeEngine();
+        private final List<String> states = new CopyOnWriteArrayList<>();
+        private final List<AudioFile> tracks = new CopyOnWriteArrayList<>();
+        private final PlaybackScheduler scheduler;
+
+        Fixture(List<AudioFile> order) {
+            PlaybackEngine.TrackSource source = previous -> previous == null
+                    ? order.get(0)
+                    : order.get((order.indexOf(previous) + 1) % order.size());
+            scheduler = new PlaybackScheduler(engine, source, Runnable::run, new PlaybackScheduler.Listener() {
+                @Override
+                public void trackStarted(AudioFile file) {
+                    tracks.add(file);
+                }
+
+                @Override
+                public void stateChanged(PlaybackScheduler.State state) {
+                    states.add(state.name());
+                }
+            });
+        }
+
+        void sync() throws InterruptedException {
+            scheduler.awaitCommands();
+        }
+    }
+
+    // Records the calls instead of playing
+    private static final class FakeEngine extends PlaybackEngine {
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+        private volatile PlaybackEngine.Listener listener;
+        private volatile Thread stopThread;
+
+        @Override
+        public void play(AudioFile first, long startPosition, TrackSource source, PlaybackEngine.Listener listener) {
+            calls.add("play " + first.getTitle() + " " + startPosition);
+            this.listener = listener;
+        }
+
+        @Override
+        public void togglePause() {
+            calls.add("togglePause");
+        }
+
+        @Override
+        public void stop() {
+            calls.add("stop");
+            stopThread = Thread.currentThread();
+        }
+
+        @Override
+        public long getPosition() {
+            return 0;
+        }
+    }
+}
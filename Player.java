@@ -1,5 +1,7 @@
 package studiplayer.ui;
 
+import javafx.animation.AnimationTimer;
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
@@ -11,13 +13,25 @@ import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import studiplayer.audio.AudioFile;
-import studiplayer.audio.NotPlayableException;
+import studiplayer.audio.AudioFileFactory;
+import studiplayer.audio.LiveSearch;
+import studiplayer.audio.MetadataPrefetcher;
+import studiplayer.audio.MetadataCache;
 import studiplayer.audio.PlayList;
+import studiplayer.audio.PlayListWatcher;
+import studiplayer.audio.PlaybackEngine;
+import studiplayer.audio.PlaybackScheduler;
+import studiplayer.audio.SampledFile;
 import studiplayer.audio.SortCriterion;
+import studiplayer.audio.SortSpec;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 
 public class Player extends Application {
 
@@ -25,6 +39,8 @@ public class Player extends Application {
     private static final String PLAYLIST_DIRECTORY = "playlists/";
     private static final String INITIAL_PLAY_TIME_LABEL = "00:00";
     private static final String NO_CURRENT_SONG = "No Song";
+    private static final String METADATA_CACHE = ".studiplayer/metadata.cache";
+    private static final Duration SEARCH_DELAY = Duration.millis(150);
 
     private PlayList playList = new PlayList();
     private boolean useCertPlayList = false;
@@ -35,40 +51,97 @@ public class Player extends Application {
     private Label playListLabel = new Label(PLAYLIST_DIRECTORY);
     private Label playTimeLabel = new Label(INITIAL_PLAY_TIME_LABEL);
     private Label currentSongLabel = new Label(NO_CURRENT_SONG);
-    private ChoiceBox<SortCriterion> sortChoiceBox;
+    private ChoiceBox<SortSpec> sortChoiceBox;
+    private CheckBox descendingCheckBox;
     private TextField searchTextField;
     private Button filterButton;
+    private final LiveSearch liveSearch = new LiveSearch(Platform::runLater);
+    private PlayListWatcher playListWatcher;
+
+    // Reads the metadata a sort or search needs before it is applied
+    private final MetadataPrefetcher metadataLoader = new MetadataPrefetcher(1, Platform::runLater);
+    // Only the latest sort and search requests are applied once the metadata was read
+    private long sortRequests = 0;
+    private long searchRequests = 0;
+    // Plays from the selected song on; the following songs are decoded ahead and join without gaps
+    private final PlaybackScheduler scheduler = new PlaybackScheduler(new PlaybackEngine(), previous -> playList.peekNext(previous),
+            Platform::runLater, new PlaybackScheduler.Listener() {
+        @Override
+        public void trackStarted(AudioFile file) {
+            playList.jumpToAudioFile(file);
+            songTable.selectSong(file);
+            songTable.scrollToSong(file);
+            updateSongInfo(file);
+        }
 
-    private PlayerThread playerThread;
-    private TimerThread timerThread;
+        // The buttons follow the state the scheduler reached, not the clicks that were queued
+        @Override
+        public void stateChanged(PlaybackScheduler.State state) {
+            switch (state) {
+                case PLAYING:
+                    setButtonStates(true, false, false, false);
+                    positionTimer.start();
+                    break;
+                case PAUSED:
+                    setButtonStates(false, true, false, false);
+                    positionTimer.stop();
+                    break;
+                default:
+                    setButtonStates(false, true, true, false);
+                    positionTimer.stop();
+                    updateSongInfo(null);
+            }
+        }
+    });
+    // Updates the play time label on screen refreshes, only when the shown second changes
+    private final AnimationTimer positionTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            long second = scheduler.getPosition() / 1_000_000;
+            if (second != shownPlaySecond) {
+                shownPlaySecond = second;
+                playTimeLabel.setText(SampledFile.timeFormatter(second * 1_000_000));
+            }
+        }
+    };
+    private long shownPlaySecond = -1;
     private SongTable songTable;
 
     @Override
     public void start(Stage stage) throws Exception {
         BorderPane root = new BorderPane();
+        AudioFileFactory.setMetadataCache(new MetadataCache(Paths.get(System.getProperty("user.home"), METADATA_CACHE)));
+        AudioFileFactory.setLazyLoading(true);
 
         FileChooser playListChooser = new FileChooser();
         playListChooser.setTitle("Open Playlist");
         playListChooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("M3U Playlist Files", "*.m3u")
+                new FileChooser.ExtensionFilter("M3U Playlist Files", "*.m3u", "*.m3u8")
         );
 
         playListChooser.setInitialDirectory(new File(System.getProperty("user.home")));
         File selectedPlayList = playListChooser.showOpenDialog(stage);
 
-        if (selectedPlayList != null) {
-            playList = new PlayList(selectedPlayList.getAbsolutePath());
-        } else {
-            playList = new PlayList(DEFAULT_PLAYLIST);
-        }
+        String playListPath = selectedPlayList != null ? selectedPlayList.getAbsolutePath() : DEFAULT_PLAYLIST;
+        playList = new PlayList();
         songTable = new SongTable(playList);
 
-        if (playList.size() > 0) {
-            songTable.selectSong(playList.iterator().next());
-            playListLabel.setText(selectedPlayList.getAbsolutePath());
-            currentSongLabel.setText(playList.currentAudioFile().toString());
-            playTimeLabel.setText(playList.currentAudioFile().formatPosition());
-        }
+        // Show the table right away and let the entries stream in while the play list loads
+        playList.loadFromM3UAsync(playListPath, Platform::runLater,
+                        (loaded, total) -> playListLabel.setText("Loading " + loaded + (total >= 0 ? " / " + total : "")))
+                .whenComplete((loadedPlayList, error) -> {
+                    playListLabel.setText(error != null ? PLAYLIST_DIRECTORY : playListPath);
+                    if (error != null) {
+                        showErrorDialog("Failed to load playlist: " + error.getMessage());
+                    } else if (playList.size() > 0) {
+                        songTable.selectSong(playList.iterator().next());
+                        currentSongLabel.setText(playList.currentAudioFile().toString());
+                        playTimeLabel.setText(INITIAL_PLAY_TIME_LABEL);
+                    }
+                    if (error == null) {
+                        watchPlayListDirectories();
+                    }
+                });
 
         Accordion filterPane = setupFilter();
 
@@ -107,6 +180,12 @@ public class Player extends Application {
 
         searchBox.getChildren().addAll(searchLabel, searchTextField);
 
+        // Filter while typing, once the user pauses for a moment
+        PauseTransition searchDelay = new PauseTransition(SEARCH_DELAY);
+        searchDelay.setOnFinished(e -> liveSearch.search(playList, searchTextField.getText(),
+                () -> songTable.selectSong(playList.currentAudioFile())));
+        searchTextField.textProperty().addListener((observable, oldText, newText) -> searchDelay.playFromStart());
+
         HBox sortBox = new HBox();
 
         sortBox.setSpacing(20);
@@ -118,24 +197,31 @@ public class Player extends Application {
         sortChoiceBox = new ChoiceBox<>();
         sortChoiceBox.setPrefWidth(140);
 
-        sortChoiceBox.getItems().addAll(SortCriterion.AUTHOR, SortCriterion.TITLE, SortCriterion.ALBUM, SortCriterion.DURATION);
+        sortChoiceBox.getItems().addAll(
+                SortSpec.of(SortCriterion.AUTHOR),
+                SortSpec.of(SortCriterion.TITLE),
+                SortSpec.of(SortCriterion.ALBUM),
+                SortSpec.of(SortCriterion.DURATION),
+                SortSpec.of(SortCriterion.AUTHOR).then(SortCriterion.ALBUM).then(SortCriterion.TITLE),
+                SortSpec.of(SortCriterion.ALBUM).then(SortCriterion.TITLE).then(SortCriterion.AUTHOR));
         sortChoiceBox.getSelectionModel().selectFirst();
-        sortChoiceBox.setOnAction(e -> {
-            SortCriterion selectedCriterion = sortChoiceBox.getSelectionModel().getSelectedItem();
-            if (selectedCriterion != null) {
-                playList.setSortCriterion(selectedCriterion);
-            }
-        });
+        sortChoiceBox.setOnAction(e -> applySortSpec());
+
+        descendingCheckBox = new CheckBox("descending");
+        descendingCheckBox.setOnAction(e -> applySortSpec());
 
         filterButton = new Button("display");
         filterButton.setOnAction(e -> {
             String searchText = searchTextField.getText();
-            SortCriterion selectedCriterion = sortChoiceBox.getSelectionModel().getSelectedItem();
-            playList.setSearch(searchText);
-            playList.setSortCriterion(selectedCriterion);
+            long request = ++searchRequests;
+            afterMetadataLoaded(() -> {
+                if (request == searchRequests) {
+                    liveSearch.search(playList, searchText, this::applySortSpec);
+                }
+            });
         });
 
-        sortBox.getChildren().addAll(sortLabel, sortChoiceBox, filterButton);
+        sortBox.getChildren().addAll(sortLabel, sortChoiceBox, descendingCheckBox, filterButton);
 
         filterData.getChildren().addAll(searchBox, sortBox);
 
@@ -146,6 +232,30 @@ public class Player extends Application {
         return filterPane;
     }
 
+    private void applySortSpec() {
+        SortSpec selectedSpec = sortChoiceBox.getSelectionModel().getSelectedItem();
+        if (selectedSpec != null) {
+            SortSpec spec = descendingCheckBox.isSelected() ? selectedSpec.reversed() : selectedSpec;
+            long request = ++sortRequests;
+            afterMetadataLoaded(() -> {
+                if (request == sortRequests) {
+                    playList.setSortSpec(spec);
+                }
+            });
+        }
+    }
+
+    // In lazy mode sort keys and the search index need the metadata, which is read in the background first
+    private void afterMetadataLoaded(Runnable action) {
+        CompletableFuture<Void> loaded = metadataLoader.loadAll(playList.getList());
+        if (loaded.isDone()) {
+            action.run();
+        } else {
+            // Files added while reading are read as well before the action runs
+            loaded.thenRun(() -> afterMetadataLoaded(action));
+        }
+    }
+
     public VBox setupDetails() {
         // Detail Pane Setup
         VBox detailPane = new VBox();
@@ -203,61 +313,30 @@ public class Player extends Application {
         if (playList.currentAudioFile() == null) {
             return;
         }
-        setButtonStates(true, false, false, false);
-
-        if (playerThread == null || !playerThread.isAlive()) {
-            terminateThreads(false);
-            playerThread = new PlayerThread();
-            playerThread.start();
-
-            timerThread = new TimerThread();
-            timerThread.start();
-        } else if (playerThread.paused) {
-            playerThread.resumePlayback();
-        }
+        scheduler.playOrResume(playList.currentAudioFile());
 
         System.out.println("Playing " + playList.currentAudioFile());
         System.out.println("Filename is " + playList.currentAudioFile().getFilename());
     }
 
     private void pauseCurrentSong() {
-        if (playerThread != null && playerThread.isAlive() && !playerThread.paused) {
-            playerThread.pausePlayback();
-            setButtonStates(true, false, false, false);
-            System.out.println("Pausing " + playList.currentAudioFile());
-            System.out.println("Filename is " + playList.currentAudioFile().getFilename());
-        }
+        scheduler.pause();
+        System.out.println("Pausing " + playList.currentAudioFile());
     }
 
     private void stopCurrentSong() {
-        if (playerThread != null) {
-            playerThread.terminate();
-            playerThread = null;
-        }
-        if (timerThread != null) {
-            timerThread.terminate();
-            timerThread = null;
-        }
-        if (playList.currentAudioFile() != null) {
-            playList.currentAudioFile().stop();
-        }
-        setButtonStates(false, true, true, false);
-        updateSongInfo(null);
+        scheduler.stop();
         System.out.println("Stopping " + playList.currentAudioFile());
         System.out.println("Filename is " + playList.currentAudioFile().getFilename());
     }
 
     private void playNextSong() {
-        stopCurrentSong();
-        playList.nextSong();
-        songTable.selectSong(playList.currentAudioFile());
-        updateSongInfo(playList.currentAudioFile());
-        playCurrentSong();
-        setButtonStates(true, false, false, false);
+        if (playList.currentAudioFile() == null) {
+            return;
+        }
+        // The song table follows once the next song started
+        scheduler.next();
         System.out.println("Switching to next audio file");
-        System.out.println("Stopped = false, paused = " + (playerThread != null && playerThread.paused));
-        System.out.println("Playing " + playList.currentAudioFile());
-        System.out.println("Filename is " + playList.currentAudioFile().getFilename());
     }
 
     private void setButtonStates(boolean playButtonState, boolean pauseButtonState, boolean stopButtonState, boolean nextButtonState) {
@@ -268,13 +347,10 @@ public class Player extends Application {
     }
 
     private void updateSongInfo(AudioFile af) {
-        if (af == null) {
-            currentSongLabel.setText(NO_CURRENT_SONG);
-            playTimeLabel.setText(INITIAL_PLAY_TIME_LABEL);
-        } else {
-            currentSongLabel.setText(af.toString());
-            playTimeLabel.setText(af.formatPosition());
-        }
+        currentSongLabel.setText(af == null ? NO_CURRENT_SONG : af.toString());
+        // The position timer shows the play time from the next frame on
+        playTimeLabel.setText(INITIAL_PLAY_TIME_LABEL);
+        shownPlaySecond = -1;
     }
 
     private Button createButton(String iconfile) {
@@ -296,6 +372,34 @@ public class Player extends Application {
         return button;
     }
 
+    // Files added, removed or retagged in the play list's directories show up without reloading
+    private void watchPlayListDirectories() {
+        try {
+            playListWatcher = new PlayListWatcher(playList, Platform::runLater);
+            playListWatcher.watchDirectoriesOf(playList.getList());
+        } catch (IOException e) {
+            System.err.println("Unable to watch play list directories: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdown();
+        liveSearch.shutdown();
+        metadataLoader.shutdown();
+        if (playListWatcher != null) {
+            playListWatcher.close();
+        }
+        MetadataCache cache = AudioFileFactory.getMetadataCache();
+        if (cache != null) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                System.err.println("Unable to save metadata cache: " + e.getMessage());
+            }
+        }
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -329,116 +433,4 @@ public class Player extends Application {
         this.useCertPlayList = value;
     }
 
-    private void startThreads(boolean onlyTimer) {
-        if (!onlyTimer) {
-            playerThread = new PlayerThread();
-            playerThread.start();
-        }
-        timerThread = new TimerThread();
-        timerThread.start();
-    }
-
-    private void terminateThreads(boolean onlyTimer) {
-        if (!onlyTimer && playerThread != null) {
-            playerThread.terminate();
-            playerThread = null;
-        }
-        if (timerThread != null) {
-            timerThread.terminate();
-            timerThread = null;
-        }
-    }
-
-    private class PlayerThread extends Thread {
-        private volatile boolean stopped = false;
-        private volatile boolean paused = false;
-
-        public void terminate() {
-            stopped = true;
-            if (playList.currentAudioFile() != null) {
-                playList.currentAudioFile().stop();
-            }
-            interrupt();
-        }
-
-        public void pausePlayback() {
-            paused = true;
-            if (playList.currentAudioFile() != null) {
-                playList.currentAudioFile().togglePause();
-            }
-        }
-
-        public void resumePlayback() {
-            paused = false;
-            synchronized (this) {
-                notify();
-            }
-            if (playList.currentAudioFile() != null) {
-                playList.currentAudioFile().togglePause();
-            }
-        }
-
-        @Override
-        public void run() {
-            while (!stopped) {
-                AudioFile currentSong = playList.currentAudioFile();
-                if (currentSong == null) {
-                    break;
-                }
-
-                Platform.runLater(() -> {
-                    songTable.selectSong(currentSong);
-                    updateSongInfo(currentSong);
-                });
-
-                try {
-                    currentSong.play();
-
-                    synchronized (this) {
-                        while (paused && !stopped) {
-                            wait();
-                        }
-                    }
-
-                } catch (NotPlayableException e) {
-                    System.out.println("NotPlayableException: " + e.getMessage());
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-
-                if (stopped) {
-                    break;
-                }
-
-                playList.nextSong();
-            }
-        }
-    }
-
-    private class TimerThread extends Thread {
-        private volatile boolean running = true;
-
-        public void terminate() {
-            running = false;
-            interrupt();
-        }
-
-        @Override
-        public void run() {
-            try {
-                while (running) {
-                    Thread.sleep(1000);
-                    Platform.runLater(() -> {
-                        AudioFile audioFile = playList.currentAudioFile();
-                        if (audioFile != null) {
-                            playTimeLabel.setText(audioFile.formatPosition());
-                        }
-                    });
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
-    }
-
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,10 +1,15 @@
 package studiplayer.audio;
 
-import studiplayer.basic.BasicPlayer;
-
 public abstract class SampledFile extends AudioFile {
 
+    // Engine behind play, togglePause and stop of single files; players create their own engines
+    private static final PlaybackEngine ENGINE = new PlaybackEngine();
+
     private long duration = 0;
+    // False while the metadata of a file created with deferred reading has not been read yet
+    private volatile boolean metadataLoaded = true;
+    // True while the metadata was taken from a play list entry (EXTINF) instead of the file
+    private volatile boolean metadataProvisional = false;
 
     public SampledFile() {
         super();
@@ -34,21 +39,17 @@ public abstract class SampledFile extends AudioFile {
 
     @Override
     public void play() throws NotPlayableException {
-        try {
-            BasicPlayer.play(getPathname());
-        } catch (Exception e) {
-            throw new NotPlayableException(getPathname(), "Audio file cannot play");
-        }
+        ENGINE.playAndWait(this);
     }
 
     @Override
     public void togglePause() {
-        BasicPlayer.togglePause();
+        ENGINE.togglePause();
     }
 
     @Override
     public void stop() {
-        BasicPlayer.stop();
+        ENGINE.stop();
     }
 
     @Override
@@ -58,11 +59,12 @@ public abstract class SampledFile extends AudioFile {
 
     @Override
     public String formatPosition() {
-        return SampledFile.timeFormatter(BasicPlayer.getPosition());
+        return SampledFile.timeFormatter(ENGINE.getPosition());
     }
 
 
     public long getDuration() {
+        loadMetadata();
         return duration;
     }
 
@@ -70,4 +72,74 @@ public abstract class SampledFile extends AudioFile {
         this.duration = duration;
     }
 
+    @Override
+    public void loadMetadata() {
+        if (!metadataLoaded) {
+            try {
+                readDeferredMetadata();
+            } catch (NotPlayableException e) {
+                System.err.println("Cannot read metadata of " + getPathname() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public boolean isMetadataLoaded() {
+        return metadataLoaded;
+    }
+
+    /**
+     * Reads the metadata of the file from disk; called at most once for files created with deferred reading.
+     */
+    protected void readMetadata() throws NotPlayableException {
+    }
+
+    public boolean isMetadataProvisional() {
+        return metadataProvisional;
+    }
+
+    /**
+     * Uses the metadata of a play list entry instead of reading the file.
+     */
+    void setProvisionalMetadata(ExtInf entry) {
+        duration = entry.duration;
+        metadataProvisional = true;
+        metadataLoaded = true;
+    }
+
+    /**
+     * Reads a file with provisional metadata again from disk, leaving this file unchanged.
+     * Returns the new version if its metadata differs from the provisional one, null otherwise.
+     */
+    SampledFile readVerified() throws NotPlayableException {
+        if (!metadataProvisional) {
+            return null;
+        }
+        SampledFile verified = (SampledFile) AudioFileFactory.createAudioFile(getPathname());
+        verified.readDeferredMetadata();
+        boolean changed = !(toString() + duration).equals(verified.toString() + verified.getDuration());
+        return changed ? verified : null;
+    }
+
+    void deferMetadata() {
+        metadataLoaded = false;
+    }
+
+    void markMetadataLoaded() {
+        metadataLoaded = true;
+    }
+
+    synchronized void readDeferredMetadata() throws NotPlayableException {
+        if (metadataLoaded) {
+            return;
+        }
+        try {
+            readMetadata();
+        } finally {
+            // A file that cannot be read keeps the values parsed from its name instead of retrying on every access
+            metadataLoaded = true;
+        }
+        AudioFileFactory.metadataRead(this);
+    }
+
 }
@@ -0,0 +1,186 @@
+package studiplayer.audio;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Trigram index over the search keys of a play list. A query of three or more characters
+ * only verifies the files of its rarest trigram; shorter queries scan the precomputed keys.
+ * Ids grow in insertion order, so results come out in play list order.
+ */
+class SearchIndex {
+
+    private static final int MIN_COMPACT_SIZE = 1024;
+
+    // Indexed files and their keys by id, null once removed
+    private AudioFile[] files = new AudioFile[16];
+    private String[] keys = new String[16];
+    private int nextId = 0;
+    private int removed = 0;
+    private final Map<AudioFile, Integer> firstIds = new IdentityHashMap<>();
+    private int duplicates = 0;
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    SearchIndex(Collection<? extends AudioFile> initialFiles) {
+        for (AudioFile file : initialFiles) {
+            add(file);
+        }
+    }
+
+    void add(AudioFile file) {
+        if (nextId == files.length) {
+            files = Arrays.copyOf(files, nextId * 2);
+            keys = Arrays.copyOf(keys, nextId * 2);
+        }
+        int id = nextId++;
+        String key = file.getSearchKey();
+        files[id] = file;
+        keys[id] = key;
+        if (firstIds.putIfAbsent(file, id) != null) {
+            duplicates++;
+        }
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            postings.computeIfAbsent(trigram(key, i), t -> new Postings()).add(id);
+        }
+    }
+
+    /**
+     * Removes the first indexed occurrence of the file.
+     */
+    void remove(AudioFile file) {
+        Integer id = firstIds.remove(file);
+        if (id == null) {
+            return;
+        }
+        files[id] = null;
+        keys[id] = null;
+        removed++;
+        findNextOccurrence(file, id);
+        if (removed > MIN_COMPACT_SIZE && removed > nextId / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Replaces the first indexed occurrence of oldFile by newFile under the same id, so newFile
+     * keeps the position of oldFile in the results. Postings of the old key are left behind,
+     * a match is always verified against the current key.
+     */
+    void replace(AudioFile oldFile, AudioFile newFile) {
+        Integer id = firstIds.remove(oldFile);
+        if (id == null) {
+            return;
+        }
+        findNextOccurrence(oldFile, id);
+        String key = newFile.getSearchKey();
+        files[id] = newFile;
+        keys[id] = key;
+        Integer newId = firstIds.get(newFile);
+        if (newId == null || newId > id) {
+            firstIds.put(newFile, id);
+        }
+        if (newId != null) {
+            duplicates++;
+        }
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            postings.computeIfAbsent(trigram(key, i), t -> new Postings()).insert(id);
+        }
+    }
+
+    private void findNextOccurrence(AudioFile file, int id) {
+        if (duplicates > 0) {
+            for (int next = id + 1; next < nextId; next++) {
+                if (files[next] == file) {
+                    firstIds.put(file, next);
+                    duplicates--;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the files whose author, title or album contain the lower-cased query, in insertion order.
+     */
+    List<AudioFile> search(String query) {
+        List<AudioFile> result = new ArrayList<>();
+        if (query.length() < 3) {
+            String[] keys = this.keys;
+            IntStream ids = IntStream.range(0, nextId);
+            (SortEngine.isParallel(nextId) ? ids.parallel() : ids)
+                    .filter(id -> keys[id] != null && keys[id].contains(query))
+                    .forEachOrdered(id -> result.add(files[id]));
+            return result;
+        }
+
+        Postings rarest = null;
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            Postings candidates = postings.get(trigram(query, i));
+            if (candidates == null) {
+                return result;
+            }
+            if (rarest == null || candidates.size < rarest.size) {
+                rarest = candidates;
+            }
+        }
+        for (int i = 0; i < rarest.size; i++) {
+            int id = rarest.ids[i];
+            if (keys[id] != null && keys[id].contains(query)) {
+                result.add(files[id]);
+            }
+        }
+        return result;
+    }
+
+    private void compact() {
+        AudioFile[] liveFiles = files;
+        int count = nextId;
+        files = new AudioFile[Math.max(16, count - removed)];
+        keys = new String[files.length];
+        nextId = 0;
+        removed = 0;
+        duplicates = 0;
+        firstIds.clear();
+        postings.clear();
+        for (int id = 0; id < count; id++) {
+            if (liveFiles[id] != null) {
+                add(liveFiles[id]);
+            }
+        }
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size = 0;
+
+        void add(int id) {
+            // A key containing a trigram several times is listed once
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        // Adds an id that may be smaller than the ones already listed
+        void insert(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+    }
+}
@@ -1,17 +1,20 @@
 package studiplayer.ui;
 
 import studiplayer.audio.AudioFile;
+import studiplayer.audio.SampledFile;
+import studiplayer.audio.TaggedFile;
 
 public class Song {
 	private AudioFile af;
-	private String interpret, titel, album, laenge;
 
-	public Song(AudioFile af, String interpret, String titel, String album, String laenge) {
+	/**
+	 * Row model for an audio file; the values are taken from the file when a cell shows them.
+	 * Until metadata that is read lazily has been loaded in the background, the row shows the
+	 * file name, so a cell never reads the file on the application thread
+	 * @param af
+	 */
+	public Song(AudioFile af) {
 		this.af = af;
-		this.interpret = interpret;
-		this.titel = titel;
-		this.album = album;
-		this.laenge = laenge;
 	}
 
 	public AudioFile getAudioFile() {
@@ -19,19 +22,37 @@ public class Song {
 	}
 
 	public String getInterpret() {
-		return interpret;
+		if (!af.isMetadataLoaded()) {
+			return "";
+		}
+		return af.getAuthor();
 	}
 
 	public String getTitel() {
-		return titel;
+		if (!af.isMetadataLoaded()) {
+			return af.getFilename();
+		}
+		return af.getTitle();
 	}
 
 	public String getAlbum() {
-		return album;
+		if (!af.isMetadataLoaded()) {
+			return "";
+		}
+		if (af instanceof TaggedFile) {
+			return ((TaggedFile) af).getAlbum();
+		}
+		return "";
 	}
 
 	public String getLaenge() {
-		return laenge;
+		if (!af.isMetadataLoaded()) {
+			return "";
+		}
+		if (af instanceof SampledFile) {
+			return ((SampledFile) af).formatDuration();
+		}
+		return "";
 	}
 	
 }	
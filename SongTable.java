@@ -1,20 +1,34 @@
 package studiplayer.ui;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.event.EventHandler;
 import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
 import javafx.scene.control.TableView;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.input.MouseEvent;
 import studiplayer.audio.AudioFile;
+import studiplayer.audio.MetadataPrefetcher;
 import studiplayer.audio.PlayList;
-import studiplayer.audio.SampledFile;
-import studiplayer.audio.TaggedFile;
+import studiplayer.audio.PlayListListener;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SongTable extends TableView<Song> implements PlayListListener {
+	private static final int PREFETCH_ROWS = 50;
 
-public class SongTable extends TableView<Song> {
 	private ObservableList<Song> tableData;
 	private PlayList playList;
+	private MetadataPrefetcher prefetcher;
+	// Row of every displayed audio file; rows from validRows on may be outdated
+	private final Map<AudioFile, Integer> rowIndex = new IdentityHashMap<>();
+	private int validRows = 0;
 
 	/**
 	 * Initialises the table with the data from the PlayList and sets table headers
@@ -23,6 +37,11 @@ public class SongTable extends TableView<Song> {
 	public SongTable(PlayList playList) {
 		this.playList = playList;
 		this.tableData = FXCollections.observableArrayList();
+		tableData.addListener((ListChangeListener<Song>) change -> {
+			while (change.next()) {
+				validRows = Math.min(validRows, change.getFrom());
+			}
+		});
 		setItems(tableData);
 		
         TableColumn<Song, String> interpretColumn = new TableColumn<>("Artist");
@@ -46,7 +65,18 @@ public class SongTable extends TableView<Song> {
 		getColumns().add(albumColumn);
 		getColumns().add(laengeColumn);
         setEditable(false);
+        prefetcher = new MetadataPrefetcher(2, Platform::runLater, this::refresh);
+        setRowFactory(table -> new TableRow<Song>() {
+			@Override
+			protected void updateItem(Song song, boolean empty) {
+				super.updateItem(song, empty);
+				if (!empty) {
+					prefetchFrom(getIndex());
+				}
+			}
+		});
         refreshSongs();
+        playList.addListener(this);
 
 		setRowSelectionHandler(e -> {
 		});
@@ -62,25 +92,85 @@ public class SongTable extends TableView<Song> {
 	}
 	
 	/**
-	 * Redisplays the table after changes (entries, configuration) to the play list
+	 * Reads the metadata of the rows following a displayed row in the background
+	 * @param index
+	 */
+	private void prefetchFrom(int index) {
+		if (index < 0 || index >= tableData.size()) {
+			return;
+		}
+		int end = Math.min(index + PREFETCH_ROWS, tableData.size());
+		List<AudioFile> files = new ArrayList<>(end - index);
+		for (Song s : tableData.subList(index, end)) {
+			files.add(s.getAudioFile());
+		}
+		prefetcher.prefetch(files);
+	}
+
+	/**
+	 * Redisplays the table after changes (entries, configuration) to the play list.
+	 * Rows are reused: files that left the view are removed, new files are added and
+	 * the rows are then permuted into the play list order
 	 */
 	public void refreshSongs() {
-		tableData.clear();
-		System.out.println(playList);
+		Map<AudioFile, Integer> newIndex = new IdentityHashMap<>();
+		List<AudioFile> files = new ArrayList<>();
 		for (AudioFile af : playList) {
-			String album = "";
-			String laenge = "";
-			
-			if (af instanceof TaggedFile) {
-				album = ((TaggedFile) af).getAlbum();
+			newIndex.put(af, files.size());
+			files.add(af);
+		}
+		if (newIndex.size() < files.size()) {
+			// A file listed more than once needs one row per entry
+			List<Song> songs = new ArrayList<>(files.size());
+			for (AudioFile af : files) {
+				songs.add(new Song(af));
 			}
-			if (af instanceof SampledFile) {
-				SampledFile sf = (SampledFile) af;
-				laenge = sf.formatDuration();
+			tableData.setAll(songs);
+			return;
+		}
+
+		// Keep one row for every file that stays in the view
+		Map<AudioFile, Song> existing = new IdentityHashMap<>();
+		tableData.removeIf(s -> !newIndex.containsKey(s.getAudioFile()) || existing.put(s.getAudioFile(), s) != null);
+		List<Song> added = new ArrayList<>();
+		for (AudioFile af : files) {
+			if (!existing.containsKey(af)) {
+				added.add(new Song(af));
 			}
-			
-			tableData.add(new Song(af, af.getAuthor(), af.getTitle(), album, laenge));
-		}		
+		}
+		tableData.addAll(added);
+
+		boolean ordered = true;
+		for (int i = 0; i < tableData.size() && ordered; i++) {
+			ordered = newIndex.get(tableData.get(i).getAudioFile()) == i;
+		}
+		if (!ordered) {
+			tableData.sort((a, b) -> Integer.compare(newIndex.get(a.getAudioFile()), newIndex.get(b.getAudioFile())));
+		}
+	}
+
+	@Override
+	public void fileInserted(int index, AudioFile file) {
+		tableData.add(index, new Song(file));
+	}
+
+	@Override
+	public void filesInserted(int index, List<AudioFile> files) {
+		List<Song> songs = new ArrayList<>(files.size());
+		for (AudioFile file : files) {
+			songs.add(new Song(file));
+		}
+		tableData.addAll(index, songs);
+	}
+
+	@Override
+	public void fileRemoved(int index, AudioFile file) {
+		tableData.remove(index);
+	}
+
+	@Override
+	public void viewChanged() {
+		refreshSongs();
 	}
 
 	/**
@@ -88,14 +178,51 @@ public class SongTable extends TableView<Song> {
 	 * @param song
 	 */
 	public void selectSong(AudioFile song) {
-		AudioFile currentAudioFile = playList.currentAudioFile();
-		int index = 0;
-		
-		for (Song s : tableData) {
-			if (s.getAudioFile() == currentAudioFile) {
-				getSelectionModel().select(index);
+		int row = rowOf(song != null ? song : playList.currentAudioFile());
+		if (row != -1) {
+			getSelectionModel().select(row);
+		}
+	}
+
+	/**
+	 * Scrolls the table so that audiofile "song" is visible
+	 * @param song
+	 */
+	public void scrollToSong(AudioFile song) {
+		int row = rowOf(song);
+		if (row != -1) {
+			scrollTo(row);
+		}
+	}
+
+	/**
+	 * Returns the row showing the audio file or -1; rows are only renumbered after the table changed
+	 * @param af
+	 */
+	private int rowOf(AudioFile af) {
+		if (af == null) {
+			return -1;
+		}
+		Integer row = rowIndex.get(af);
+		if (row != null && row < validRows && tableData.get(row).getAudioFile() == af) {
+			return row;
+		}
+		if (validRows == tableData.size()) {
+			return -1;
+		}
+		if (validRows == 0) {
+			rowIndex.clear();
+		}
+		for (int i = validRows; i < tableData.size(); i++) {
+			AudioFile rowFile = tableData.get(i).getAudioFile();
+			Integer known = rowIndex.get(rowFile);
+			// Keep the first row of a file listed more than once
+			if (known == null || known >= i || tableData.get(known).getAudioFile() != rowFile) {
+				rowIndex.put(rowFile, i);
 			}
-			++index;
 		}
+		validRows = tableData.size();
+		row = rowIndex.get(af);
+		return row != null && row < tableData.size() && tableData.get(row).getAudioFile() == af ? row : -1;
 	}
 }
@@ -0,0 +1,69 @@
+package studiplayer.audio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times SortEngine sorting and play list filtering on synthetic lists of several sizes, to choose
+ * SortEngine.PARALLEL_THRESHOLD for a machine. Run once sequentially and once in parallel and compare:
+ * java -Dstudiplayer.parallelThreshold=2147483647 studiplayer.audio.SortBenchmark
+ * java -Dstudiplayer.parallelThreshold=0 studiplayer.audio.SortBenchmark
+ * Only runs on a machine with more than one core compare anything, see SortEngine.isParallel.
+ */
+public class SortBenchmark {
+
+    private static final int[] SIZES = { 1 << 10, 1 << 13, 1 << 16, 1 << 18 };
+    private static final int RUNS = 15;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("threshold " + SortEngine.PARALLEL_THRESHOLD + ", parallelism "
+                + ForkJoinPool.getCommonPoolParallelism());
+        if (ForkJoinPool.getCommonPoolParallelism() <= 1) {
+            System.err.println("Common pool parallelism is 1, both thresholds measure the sequential path");
+        }
+        System.out.printf("%8s %12s %12s %12s%n", "files", "author ms", "duration ms", "filter ms");
+        for (int size : SIZES) {
+            List<AudioFile> files = files(size);
+            SortSpec byAuthor = SortSpec.of(SortCriterion.AUTHOR);
+            SortSpec byDuration = SortSpec.of(SortCriterion.DURATION);
+            String query = ControllablePlayListIterator.normalizeSearch("st1");
+            double author = median(() -> SortEngine.sort(new ArrayList<>(files), byAuthor));
+            double duration = median(() -> SortEngine.sort(new ArrayList<>(files), byDuration));
+            double filter = median(() -> ControllablePlayListIterator.filter(files,
+                    file -> ControllablePlayListIterator.matchesQuery(file, query), null));
+            System.out.printf("%8d %12.3f %12.3f %12.3f%n", size, author, duration, filter);
+        }
+    }
+
+    // Files with random authors, titles and durations; nothing is read from disk
+    static List<AudioFile> files(int size) throws NotPlayableException {
+        Random random = new Random(size);
+        List<AudioFile> files = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String displayTitle = "Artist" + random.nextInt(size / 8 + 1) + " - Title" + random.nextInt(size);
+            files.add(TestFiles.file(displayTitle, random.nextInt(3600)));
+        }
+        return files;
+    }
+
+    private static double median(Runnable task) {
+        return median(task, RUNS);
+    }
+
+    // Median time of runs runs in milliseconds, after as many warm-up runs
+    static double median(Runnable task, int runs) {
+        long[] times = new long[runs];
+        for (int i = 0; i < 2 * runs; i++) {
+            long start = System.nanoTime();
+            task.run();
+            if (i >= runs) {
+                times[i - runs] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(times);
+        return times[runs / 2] / 1e6;
+    }
+}
@@ -0,0 +1,373 @@
+package studiplayer.audio;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Sorts audio files by extracting the sort keys of every file once and then sorting indices over
+ * those keys. The result is the same stable order as sorting with the SortSpec's comparator.
+ * Lists of at least PARALLEL_THRESHOLD files are processed on the common fork/join pool.
+ */
+final class SortEngine {
+
+    /**
+     * Minimum list size for parallel key extraction, sorting and filtering; can be tuned
+     * with the system property studiplayer.parallelThreshold. The default is a conservative guess
+     * that has not been measured on a multi-core machine yet; SortBenchmark compares both paths
+     * there. With a common pool parallelism of 1 the sequential path is always taken.
+     */
+    static final int PARALLEL_THRESHOLD = Integer.getInteger("studiplayer.parallelThreshold", 1 << 16);
+
+    private static final int INSERTION_SORT_THRESHOLD = 7;
+
+    private SortEngine() {
+    }
+
+    static void sort(List<AudioFile> files, SortCriterion sortCriterion) {
+        sort(files, SortSpec.of(sortCriterion));
+    }
+
+    static void sort(List<AudioFile> files, SortSpec sortSpec) {
+        if (files.size() < 2 || sortSpec.isDefault()) {
+            return;
+        }
+        AudioFile[] sorted = files.toArray(new AudioFile[0]);
+        int[] order;
+        if (sortSpec.size() == 1 && sortSpec.getCriterion(0) == SortCriterion.DURATION) {
+            order = sortByDuration(sorted, sortSpec.isDescending(0));
+        } else {
+            order = sortIndices(column(sorted, sortSpec), sorted.length);
+        }
+        for (int i = 0; i < order.length; i++) {
+            files.set(i, sorted[order[i]]);
+        }
+    }
+
+    static boolean isParallel(int size) {
+        return size >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    private static void forEachIndex(int n, IntConsumer action) {
+        IntStream indices = IntStream.range(0, n);
+        (isParallel(n) ? indices.parallel() : indices).forEach(action);
+    }
+
+    // Packs duration and index into one long where possible, so a primitive sort stays stable
+    private static int[] sortByDuration(AudioFile[] files, boolean descending) {
+        int n = files.length;
+        int indexBits = 32 - Integer.numberOfLeadingZeros(n - 1);
+        long maxDuration = Long.MAX_VALUE >>> indexBits;
+        LongColumn durations = new LongColumn(files);
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            long duration = durations.keys[i];
+            if (duration < 0 || duration > maxDuration) {
+                return sortIndices(descending ? reversed(durations) : durations, n);
+            }
+            packed[i] = ((descending ? maxDuration - duration : duration) << indexBits) | i;
+        }
+        if (isParallel(n)) {
+            Arrays.parallelSort(packed);
+        } else {
+            Arrays.sort(packed);
+        }
+        long indexMask = (1L << indexBits) - 1;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) (packed[i] & indexMask);
+        }
+        return order;
+    }
+
+    private static KeyColumn column(AudioFile[] files, SortSpec sortSpec) {
+        KeyColumn[] columns = new KeyColumn[sortSpec.size()];
+        for (int i = 0; i < columns.length; i++) {
+            KeyColumn column = column(files, sortSpec.getCriterion(i));
+            columns[i] = sortSpec.isDescending(i) ? reversed(column) : column;
+        }
+        if (columns.length == 1) {
+            return columns[0];
+        }
+        return (a, b) -> {
+            for (KeyColumn column : columns) {
+                int result = column.compare(a, b);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        };
+    }
+
+    private static KeyColumn reversed(KeyColumn column) {
+        return (a, b) -> column.compare(b, a);
+    }
+
+    private static KeyColumn column(AudioFile[] files, SortCriterion sortCriterion) {
+        switch (sortCriterion) {
+            case AUTHOR:
+                return new SymbolColumn(files);
+            case TITLE:
+                return new StringColumn(files);
+            case ALBUM:
+                return new AlbumColumn(files);
+            case DURATION:
+                return new LongColumn(files);
+            default:
+                throw new IllegalArgumentException("No sort key for " + sortCriterion);
+        }
+    }
+
+    private static int[] sortIndices(KeyColumn column, int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        if (isParallel(n)) {
+            ForkJoinPool.commonPool().invoke(new ParallelMergeSort(order.clone(), order, 0, n, column));
+        } else {
+            mergeSort(order.clone(), order, 0, n, column);
+        }
+        return order;
+    }
+
+    // Stable top-down merge sort of dest[low, high), src holds the same indices on entry
+    private static void mergeSort(int[] src, int[] dest, int low, int high, KeyColumn column) {
+        int length = high - low;
+        if (length < INSERTION_SORT_THRESHOLD) {
+            for (int i = low + 1; i < high; i++) {
+                for (int j = i; j > low && column.compare(dest[j - 1], dest[j]) > 0; j--) {
+                    int swap = dest[j];
+                    dest[j] = dest[j - 1];
+                    dest[j - 1] = swap;
+                }
+            }
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        mergeSort(dest, src, low, mid, column);
+        mergeSort(dest, src, mid, high, column);
+        if (column.compare(src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, low, dest, low, length);
+            return;
+        }
+        merge(src, dest, low, mid, high, column);
+    }
+
+    private static void merge(int[] src, int[] dest, int low, int mid, int high, KeyColumn column) {
+        for (int i = low, p = low, q = mid; i < high; i++) {
+            if (q >= high || p < mid && column.compare(src[p], src[q]) <= 0) {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+
+    // Same merge sort with both halves sorted in parallel down to a granularity of a few thousand indices
+    private static final class ParallelMergeSort extends RecursiveAction {
+        private static final int SEQUENTIAL_GRANULARITY = 1 << 13;
+
+        private final int[] src;
+        private final int[] dest;
+        private final int low;
+        private final int high;
+        private final KeyColumn column;
+
+        ParallelMergeSort(int[] src, int[] dest, int low, int high, KeyColumn column) {
+            this.src = src;
+            this.dest = dest;
+            this.low = low;
+            this.high = high;
+            this.column = column;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low <= SEQUENTIAL_GRANULARITY) {
+                mergeSort(src, dest, low, high, column);
+                return;
+            }
+            int mid = (low + high) >>> 1;
+            invokeAll(new ParallelMergeSort(dest, src, low, mid, column),
+                    new ParallelMergeSort(dest, src, mid, high, column));
+            if (column.compare(src[mid - 1], src[mid]) <= 0) {
+                System.arraycopy(src, low, dest, low, high - low);
+            } else {
+                merge(src, dest, low, mid, high, column);
+            }
+        }
+    }
+
+    private static long duration(AudioFile file) {
+        return file instanceof SampledFile ? ((SampledFile) file).getDuration() : 0;
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+
+    // The first four chars of a string packed into a long whose unsigned order matches String.compareTo
+    private static long prefix(String value) {
+        long prefix = 0;
+        for (int i = 0; i < 4; i++) {
+            prefix = (prefix << 16) | (i < value.length() ? value.charAt(i) : 0);
+        }
+        return prefix;
+    }
+
+    private interface KeyColumn {
+        int compare(int a, int b);
+    }
+
+    private static final class LongColumn implements KeyColumn {
+        private final long[] keys;
+
+        LongColumn(AudioFile[] files) {
+            keys = new long[files.length];
+            forEachIndex(files.length, i -> keys[i] = duration(files[i]));
+        }
+
+        @Override
+        public int compare(int a, int b) {
+            return Long.compare(keys[a], keys[b]);
+        }
+    }
+
+    private static final class StringColumn implements KeyColumn {
+        private final String[] keys;
+        private final long[] prefixes;
+
+        StringColumn(AudioFile[] files) {
+            this(titles(files));
+        }
+
+        StringColumn(String[] keys) {
+            this.keys = keys;
+            this.prefixes = prefixes(keys);
+        }
+
+        @Override
+        public int compare(int a, int b) {
+            return compareStrings(keys, prefixes, a, b);
+        }
+    }
+
+    // Authors are compared by the rank of their symbol, so only distinct authors are compared as strings
+    private static final class SymbolColumn implements KeyColumn {
+        private final int[] ranks;
+
+        SymbolColumn(AudioFile[] files) {
+            int[] symbols = new int[files.length];
+            forEachIndex(files.length, i -> symbols[i] = files[i].getAuthorId());
+            ranks = symbolRanks(symbols);
+        }
+
+        @Override
+        public int compare(int a, int b) {
+            return Integer.compare(ranks[a], ranks[b]);
+        }
+    }
+
+    // Same order as AlbumComparator: untagged files, tagged files without album, then by album and title
+    private static final class AlbumColumn implements KeyColumn {
+        private static final byte UNTAGGED = 0;
+        private static final byte NO_ALBUM = 1;
+        private static final byte ALBUM = 2;
+
+        private final byte[] ranks;
+        private final int[] albumRanks;
+        private final String[] titles;
+        private final long[] titlePrefixes;
+
+        AlbumColumn(AudioFile[] files) {
+            ranks = new byte[files.length];
+            int[] albums = new int[files.length];
+            titles = new String[files.length];
+            forEachIndex(files.length, i -> {
+                albums[i] = SymbolTable.NONE;
+                titles[i] = "";
+                if (files[i] instanceof TaggedFile) {
+                    int album = ((TaggedFile) files[i]).getAlbumId();
+                    String value = SymbolTable.METADATA.valueOf(album);
+                    ranks[i] = value == null || value.isEmpty() ? NO_ALBUM : ALBUM;
+                    if (ranks[i] == ALBUM) {
+                        albums[i] = album;
+                        titles[i] = nonNull(files[i].getTitle());
+                    }
+                }
+            });
+            albumRanks = symbolRanks(albums);
+            titlePrefixes = prefixes(titles);
+        }
+
+        @Override
+        public int compare(int a, int b) {
+            if (ranks[a] != ranks[b]) {
+                return ranks[a] < ranks[b] ? -1 : 1;
+            }
+            if (ranks[a] != ALBUM) {
+                return 0;
+            }
+            int result = Integer.compare(albumRanks[a], albumRanks[b]);
+            return result != 0 ? result : compareStrings(titles, titlePrefixes, a, b);
+        }
+    }
+
+    /**
+     * Replaces every symbol id by the rank of its value among the distinct values, so equal values
+     * get equal ranks and only the distinct values are sorted as strings. NONE ranks as "".
+     */
+    private static int[] symbolRanks(int[] symbols) {
+        SymbolTable table = SymbolTable.METADATA;
+        int none = table.idOf("");
+        // Every id in symbols was handed out before the capacity is read
+        int[] rankBySymbol = new int[table.capacity()];
+        Arrays.fill(rankBySymbol, -1);
+        int[] distinct = new int[16];
+        int count = 0;
+        for (int i = 0; i < symbols.length; i++) {
+            int symbol = symbols[i] == SymbolTable.NONE ? none : symbols[i];
+            symbols[i] = symbol;
+            if (rankBySymbol[symbol] == -1) {
+                rankBySymbol[symbol] = count;
+                if (count == distinct.length) {
+                    distinct = Arrays.copyOf(distinct, count * 2);
+                }
+                distinct[count++] = symbol;
+            }
+        }
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = table.valueOf(distinct[i]);
+        }
+        int[] order = sortIndices(new StringColumn(values), count);
+        for (int rank = 0; rank < count; rank++) {
+            rankBySymbol[distinct[order[rank]]] = rank;
+        }
+        int[] ranks = new int[symbols.length];
+        forEachIndex(symbols.length, i -> ranks[i] = rankBySymbol[symbols[i]]);
+        return ranks;
+    }
+
+    private static String[] titles(AudioFile[] files) {
+        String[] titles = new String[files.length];
+        forEachIndex(files.length, i -> titles[i] = nonNull(files[i].getTitle()));
+        return titles;
+    }
+
+    private static long[] prefixes(String[] keys) {
+        long[] prefixes = new long[keys.length];
+        forEachIndex(keys.length, i -> prefixes[i] = prefix(keys[i]));
+        return prefixes;
+    }
+
+    private static int compareStrings(String[] keys, long[] prefixes, int a, int b) {
+        int result = Long.compareUnsigned(prefixes[a], prefixes[b]);
+        return result != 0 ? result : keys[a].compareTo(keys[b]);
+    }
+}
@@ -0,0 +1,28 @@
+package studiplayer.audio;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Times SortEngine against List.sort with the comparator of each criterion on 1M synthetic files.
+ * Run with: java -Xmx2g studiplayer.audio.SortEngineBenchmark
+ */
+public class SortEngineBenchmark {
+
+    private static final int SIZE = 1 << 20;
+    private static final int RUNS = 5;
+    private static final SortCriterion[] CRITERIA = { SortCriterion.AUTHOR, SortCriterion.TITLE, SortCriterion.DURATION };
+
+    public static void main(String[] args) throws Exception {
+        List<AudioFile> files = SortBenchmark.files(SIZE);
+        System.out.printf("%d files%n%10s %14s %14s %8s%n", SIZE, "criterion", "List.sort ms", "SortEngine ms", "speedup");
+        for (SortCriterion criterion : CRITERIA) {
+            Comparator<AudioFile> comparator = ControllablePlayListIterator.getComparator(criterion);
+            SortSpec spec = SortSpec.of(criterion);
+            double listSort = SortBenchmark.median(() -> new ArrayList<>(files).sort(comparator), RUNS);
+            double engine = SortBenchmark.median(() -> SortEngine.sort(new ArrayList<>(files), spec), RUNS);
+            System.out.printf("%10s %14.1f %14.1f %8.2f%n", criterion, listSort, engine, listSort / engine);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package studiplayer.audio;
+
+import java.util.*;
+
+/**
+ * Immutable sort order made of one or more criteria, each ascending or descending,
+ * e.g. SortSpec.of(SortCriterion.ALBUM).then(SortCriterion.TITLE).
+ * Files that are equal under all criteria keep their play list order.
+ */
+public final class SortSpec {
+
+    public static final SortSpec DEFAULT = new SortSpec(new SortCriterion[0], new boolean[0]);
+
+    private final SortCriterion[] criteria;
+    private final boolean[] descending;
+
+    private SortSpec(SortCriterion[] criteria, boolean[] descending) {
+        this.criteria = criteria;
+        this.descending = descending;
+    }
+
+    public static SortSpec of(SortCriterion criterion) {
+        return DEFAULT.then(criterion);
+    }
+
+    public static SortSpec descending(SortCriterion criterion) {
+        return DEFAULT.thenDescending(criterion);
+    }
+
+    public SortSpec then(SortCriterion criterion) {
+        return append(criterion, false);
+    }
+
+    public SortSpec thenDescending(SortCriterion criterion) {
+        return append(criterion, true);
+    }
+
+    /**
+     * Returns the spec with the direction of every criterion flipped.
+     */
+    public SortSpec reversed() {
+        boolean[] flipped = new boolean[descending.length];
+        for (int i = 0; i < flipped.length; i++) {
+            flipped[i] = !descending[i];
+        }
+        return new SortSpec(criteria, flipped);
+    }
+
+    public boolean isDefault() {
+        return criteria.length == 0;
+    }
+
+    public int size() {
+        return criteria.length;
+    }
+
+    public SortCriterion getCriterion(int index) {
+        return criteria[index];
+    }
+
+    public boolean isDescending(int index) {
+        return descending[index];
+    }
+
+    /**
+     * The first criterion, or SortCriterion.DEFAULT for the play list order.
+     */
+    public SortCriterion getPrimaryCriterion() {
+        return isDefault() ? SortCriterion.DEFAULT : criteria[0];
+    }
+
+    /**
+     * Comparator for this spec, or null for the play list order.
+     */
+    public Comparator<AudioFile> comparator() {
+        Comparator<AudioFile> result = null;
+        for (int i = 0; i < criteria.length; i++) {
+            Comparator<AudioFile> comparator = ControllablePlayListIterator.getComparator(criteria[i]);
+            if (descending[i]) {
+                comparator = comparator.reversed();
+            }
+            result = result == null ? comparator : result.thenComparing(comparator);
+        }
+        return result;
+    }
+
+    private SortSpec append(SortCriterion criterion, boolean descendingOrder) {
+        if (criterion == null || criterion == SortCriterion.DEFAULT || Arrays.asList(criteria).contains(criterion)) {
+            return this;
+        }
+        SortCriterion[] newCriteria = Arrays.copyOf(criteria, criteria.length + 1);
+        boolean[] newDescending = Arrays.copyOf(descending, descending.length + 1);
+        newCriteria[criteria.length] = criterion;
+        newDescending[criteria.length] = descendingOrder;
+        return new SortSpec(newCriteria, newDescending);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SortSpec)) {
+            return false;
+        }
+        SortSpec other = (SortSpec) o;
+        return Arrays.equals(criteria, other.criteria) && Arrays.equals(descending, other.descending);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(criteria) + Arrays.hashCode(descending);
+    }
+
+    @Override
+    public String toString() {
+        if (isDefault()) {
+            return SortCriterion.DEFAULT.toString();
+        }
+        StringJoiner joiner = new StringJoiner(", ");
+        for (int i = 0; i < criteria.length; i++) {
+            joiner.add(descending[i] ? criteria[i] + " desc" : criteria[i].toString());
+        }
+        return joiner.toString();
+    }
+}
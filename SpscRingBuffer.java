@@ -0,0 +1,169 @@
+package studiplayer.audio;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free byte ring buffer between exactly one producer and one consumer thread. The producer can
+ * place marks between the bytes (e.g. track boundaries); the consumer never reads across a mark
+ * and takes each mark when it reaches its position. A thread only parks while the buffer is full
+ * or empty and is unparked by the other side.
+ */
+final class SpscRingBuffer<T> {
+
+    private final byte[] data;
+    private final int mask;
+    // Total bytes written and read; written only by the producer and the consumer respectively. Both are
+    // volatile writes, so a side that publishes its position always sees the other side's waiting thread
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+    private final Queue<Mark<T>> marks = new ConcurrentLinkedQueue<>();
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+    private volatile boolean finished = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a buffer of capacity bytes, rounded up to a power of two.
+     */
+    SpscRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        data = new byte[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+        mask = data.length - 1;
+    }
+
+    int capacity() {
+        return data.length;
+    }
+
+    // Producer side
+
+    void mark(T value) {
+        marks.add(new Mark<>(writePosition.get(), value));
+        LockSupport.unpark(waitingConsumer);
+    }
+
+    /**
+     * Writes all bytes, waiting for space; returns false if the buffer was closed.
+     */
+    boolean write(byte[] buffer, int offset, int length) throws InterruptedException {
+        long write = writePosition.get();
+        int end = offset + length;
+        while (offset < end) {
+            int free = (int) (data.length - (write - readPosition.get()));
+            if (free == 0) {
+                if (!awaitSpace(write)) {
+                    return false;
+                }
+                continue;
+            }
+            int position = (int) (write & mask);
+            int count = Math.min(end - offset, Math.min(free, data.length - position));
+            System.arraycopy(buffer, offset, data, position, count);
+            offset += count;
+            write += count;
+            writePosition.set(write);
+            LockSupport.unpark(waitingConsumer);
+        }
+        return !closed;
+    }
+
+    /**
+     * Marks the end of the data; the consumer reads the remaining bytes and then sees the end.
+     */
+    void finish() {
+        finished = true;
+        LockSupport.unpark(waitingConsumer);
+    }
+
+    private boolean awaitSpace(long write) throws InterruptedException {
+        waitingProducer = Thread.currentThread();
+        try {
+            while (!closed && write - readPosition.get() == data.length) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waitingProducer = null;
+        }
+        return !closed;
+    }
+
+    // Consumer side
+
+    /**
+     * Takes the mark at the current read position, or returns null if the next byte is not marked.
+     */
+    T nextMark() {
+        Mark<T> mark = marks.peek();
+        if (mark != null && mark.position == readPosition.get()) {
+            marks.poll();
+            return mark.value;
+        }
+        return null;
+    }
+
+    /**
+     * Reads up to length bytes but not past the next mark, waiting for bytes. Returns 0 if a mark
+     * is at the read position and -1 once all data was read or the buffer was closed.
+     */
+    int read(byte[] buffer, int offset, int length) throws InterruptedException {
+        long read = readPosition.get();
+        long write;
+        waitingConsumer = Thread.currentThread();
+        try {
+            while ((write = writePosition.get()) == read && marks.isEmpty() && !finished && !closed) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+        if (closed) {
+            return -1;
+        }
+        if (finished) {
+            // The last bytes may have been written after write was read
+            write = writePosition.get();
+        }
+        // Marks are placed before the bytes following them, so every mark below write is visible now
+        Mark<T> mark = marks.peek();
+        long end = mark != null ? Math.min(mark.position, write) : write;
+        if (end == read) {
+            return mark != null ? 0 : -1;
+        }
+        int position = (int) (read & mask);
+        int count = (int) Math.min(length, Math.min(end - read, data.length - position));
+        System.arraycopy(data, position, buffer, offset, count);
+        readPosition.set(read + count);
+        LockSupport.unpark(waitingProducer);
+        return count;
+    }
+
+    /**
+     * Wakes and ends both sides; called by any thread to abandon the buffer.
+     */
+    void close() {
+        closed = true;
+        LockSupport.unpark(waitingProducer);
+        LockSupport.unpark(waitingConsumer);
+    }
+
+    private static final class Mark<T> {
+        private final long position;
+        private final T value;
+
+        Mark(long position, T value) {
+            this.position = position;
+            this.value = value;
+        }
+    }
+}
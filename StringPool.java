@@ -0,0 +1,25 @@
+package studiplayer.audio;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances of strings shared by many audio files, such as directories,
+ * so each distinct value is kept in memory only once. Authors and albums are kept
+ * in the SymbolTable instead.
+ */
+final class StringPool {
+
+    private static final Map<String, String> pool = new ConcurrentHashMap<>();
+
+    private StringPool() {
+    }
+
+    static String intern(String value) {
+        if (value == null || value.isEmpty()) {
+            return value == null ? null : "";
+        }
+        String canonical = pool.putIfAbsent(value, value);
+        return canonical != null ? canonical : value;
+    }
+}
@@ -0,0 +1,67 @@
+package studiplayer.audio;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a stable integer id to every distinct metadata value (authors and albums), so audio files
+ * share one instance per value and sorting and searching can compare ids instead of strings.
+ * Ids are handed out in order of first use and never reused.
+ */
+final class SymbolTable {
+
+    static final SymbolTable METADATA = new SymbolTable();
+
+    // Id standing for a null value
+    static final int NONE = -1;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // Replaced on growth; a thread that learned an id always sees an array containing it
+    private volatile String[] values = new String[256];
+    private volatile String[] lowerCaseValues = new String[256];
+    private int size = 0;
+
+    int idOf(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            String[] newValues = values;
+            String[] newLowerCaseValues = lowerCaseValues;
+            if (size == newValues.length) {
+                newValues = Arrays.copyOf(newValues, size * 2);
+                newLowerCaseValues = Arrays.copyOf(newLowerCaseValues, size * 2);
+            }
+            newValues[size] = value;
+            newLowerCaseValues[size] = value.toLowerCase();
+            lowerCaseValues = newLowerCaseValues;
+            values = newValues;
+            ids.put(value, size);
+            return size++;
+        }
+    }
+
+    String valueOf(int id) {
+        return id == NONE ? null : values[id];
+    }
+
+    String lowerCaseOf(int id) {
+        return id == NONE ? "" : lowerCaseValues[id];
+    }
+
+    /**
+     * Upper bound of all ids handed out so far.
+     */
+    int capacity() {
+        return values.length;
+    }
+}
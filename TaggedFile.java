@@ -2,50 +2,93 @@ package studiplayer.audio;
 
 import studiplayer.basic.TagReader;
 
-import java.util.Map;
+import java.io.IOException;
 
 public class TaggedFile extends SampledFile {
 
-    private String album;
+    // Id of the album in the metadata symbol table
+    private int albumId = SymbolTable.NONE;
 
     public TaggedFile() {
         super();
     }
 
     public TaggedFile(String path) throws NotPlayableException {
+        this(path, false);
+    }
+
+    // Creates a tagged file whose tags are only read on first access if deferred is set
+    TaggedFile(String path, boolean deferred) throws NotPlayableException {
         super(path);
-        readAndStoreTags();
+        if (deferred) {
+            deferMetadata();
+        } else {
+            readAndStoreTags();
+        }
     }
 
     public String getAlbum() {
-        return album;
+        return SymbolTable.METADATA.valueOf(getAlbumId());
+    }
+
+    int getAlbumId() {
+        loadMetadata();
+        return albumId;
+    }
+
+    void setAlbum(String album) {
+        this.albumId = SymbolTable.METADATA.idOf(album);
+        invalidateSearchKey();
+    }
+
+    // The entry has no album, it stays empty until the tags are read
+    @Override
+    void setProvisionalMetadata(ExtInf entry) {
+        this.albumId = SymbolTable.METADATA.idOf("");
+        setTitle(entry.title);
+        setAuthor(entry.author);
+        super.setProvisionalMetadata(entry);
+    }
+
+    @Override
+    String buildSearchKey() {
+        return super.buildSearchKey() + '\0' + SymbolTable.METADATA.lowerCaseOf(getAlbumId());
     }
 
     public void readAndStoreTags() throws NotPlayableException {
+        AudioTags tags;
+        try {
+            tags = AudioTags.read(getPathname());
+        } catch (IOException | RuntimeException e) {
+            // Files the tag reader does not understand are left to TagReader
+            tags = null;
+        }
         try {
-            Map<String, Object> tagMap = TagReader.readTags(getPathname());
-            for (String tag : tagMap.keySet()) {
-                Object value = tagMap.get(tag);
-                System.out.printf("key: %-25s value: %-30s (type: %s)\n",
-                        tag, value, value.getClass().getSimpleName());
+            if (tags == null) {
+                tags = AudioTags.of(TagReader.readTags(getPathname()));
             }
             String fileName = getFilename();
-            String title = (String) tagMap.getOrDefault("title", fileName.substring(0, fileName.lastIndexOf(".")));
-            String author = (String) tagMap.getOrDefault("author", "");
-            String album = (String) tagMap.getOrDefault("album", "");
-            long duration = (long) tagMap.getOrDefault("duration", 0);
+            String title = tags.getTitle() != null ? tags.getTitle() : fileName.substring(0, fileName.lastIndexOf("."));
+            String author = tags.getAuthor() != null ? tags.getAuthor() : "";
+            String album = tags.getAlbum() != null ? tags.getAlbum() : "";
 
-            this.album = album.trim();
+            this.albumId = SymbolTable.METADATA.idOf(album.trim());
             setTitle(title.trim());
             setAuthor(author.trim());
-            setDuration(duration);
+            setDuration(tags.getDuration());
         } catch (Exception e) {
             throw new NotPlayableException(getPathname(), "Cannot read and store tags");
         }
     }
 
+    @Override
+    protected void readMetadata() throws NotPlayableException {
+        readAndStoreTags();
+    }
+
     @Override
     public String toString() {
+        String album = getAlbum();
         if (album.isEmpty())
             return super.toString() + " - " + formatDuration();
         return super.toString() + " - " + album + " - " + formatDuration();
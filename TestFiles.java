@@ -0,0 +1,16 @@
+package studiplayer.audio;
+
+/**
+ * Synthetic audio files for the test and benchmark mains; nothing is read from disk.
+ */
+final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    // A wav file at a path that does not exist, with its metadata taken from an EXTINF entry
+    static AudioFile file(String displayTitle, int seconds) throws NotPlayableException {
+        return AudioFileFactory.createAudioFile("/nonexistent/" + displayTitle + ".wav",
+                ExtInf.parse("#EXTINF:" + seconds + "," + displayTitle));
+    }
+}
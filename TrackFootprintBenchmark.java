@@ -0,0 +1,37 @@
+package studiplayer.audio;
+
+/**
+ * Measures the heap retained per lazily loaded audio file for a library of albums with twelve
+ * tracks each, including the reference from the holding array. The metadata is parsed from the
+ * filenames; nothing is read from disk.
+ * Run with: java studiplayer.audio.TrackFootprintBenchmark
+ */
+public class TrackFootprintBenchmark {
+
+    private static final int TRACKS = 200_000;
+    private static final int TRACKS_PER_ALBUM = 12;
+    private static final int ALBUMS_PER_ARTIST = 5;
+
+    public static void main(String[] args) throws Exception {
+        AudioFileFactory.setLazyLoading(true);
+        long before = usedHeap();
+        AudioFile[] files = new AudioFile[TRACKS];
+        for (int i = 0; i < TRACKS; i++) {
+            int album = i / TRACKS_PER_ALBUM;
+            int artist = album / ALBUMS_PER_ARTIST;
+            files[i] = AudioFileFactory.createAudioFile(String.format("/home/user/Music/Artist %d/Album %d/%02d Artist %d - Title %d.mp3",
+                    artist, album, i % TRACKS_PER_ALBUM + 1, artist, i));
+        }
+        long after = usedHeap();
+        System.out.printf("%d tracks, %.1f bytes per track%n", files.length, (double) (after - before) / TRACKS);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -2,6 +2,8 @@ package studiplayer.audio;
 
 import studiplayer.basic.WavParamReader;
 
+import java.io.IOException;
+
 public class WavFile extends SampledFile {
 
     public WavFile() {
@@ -9,8 +11,17 @@ public class WavFile extends SampledFile {
     }
 
     public WavFile(String path) throws NotPlayableException {
+        this(path, false);
+    }
+
+    // Creates a wav file whose duration is only read on first access if deferred is set
+    WavFile(String path, boolean deferred) throws NotPlayableException {
         super(path);
-        readAndSetDurationFromFile();
+        if (deferred) {
+            deferMetadata();
+        } else {
+            readAndSetDurationFromFile();
+        }
     }
 
     public static long computeDuration(long numberOfFrames, float frameRate) {
@@ -19,19 +30,39 @@ public class WavFile extends SampledFile {
     }
 
     public void readAndSetDurationFromFile() throws NotPlayableException {
+        long duration;
         try {
-            WavParamReader.readParams(getPathname());
+            duration = WavHeader.read(getPathname()).getDuration();
+        } catch (IOException | RuntimeException e) {
+            // Files the header reader does not understand are left to WavParamReader
+            duration = readDurationWithWavParamReader();
+        }
+        setDuration(duration);
+    }
 
-            long numberOfFrames = WavParamReader.getNumberOfFrames();
-            float frameRate = WavParamReader.getFrameRate();
+    private long readDurationWithWavParamReader() throws NotPlayableException {
+        try {
+            long numberOfFrames;
+            float frameRate;
+            // WavParamReader keeps the parameters of the last file in static fields
+            synchronized (WavParamReader.class) {
+                WavParamReader.readParams(getPathname());
+
+                numberOfFrames = WavParamReader.getNumberOfFrames();
+                frameRate = WavParamReader.getFrameRate();
+            }
 
-            long duration = WavFile.computeDuration(numberOfFrames, frameRate);
-            setDuration(duration);
+            return WavFile.computeDuration(numberOfFrames, frameRate);
         } catch (Exception e) {
             throw new NotPlayableException(getPathname(), "Cannot read and set duration");
         }
     }
 
+    @Override
+    protected void readMetadata() throws NotPlayableException {
+        readAndSetDurationFromFile();
+    }
+
     @Override
     public String toString() {
         return super.toString() + " - " + formatDuration();
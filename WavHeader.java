@@ -0,0 +1,174 @@
+package studiplayer.audio;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Format and length of a RIFF/WAVE file, read from its header. Only the region holding the chunk
+ * headers is mapped, the sample data is never touched. Handles WAVE_FORMAT_EXTENSIBLE and RF64 files
+ * whose data chunk exceeds 4 GiB. Instances are immutable, reading needs no shared state.
+ */
+final class WavHeader {
+
+    private static final int RIFF = 0x46464952;          // "RIFF"
+    private static final int RF64 = 0x34364652;          // "RF64"
+    private static final int WAVE = 0x45564157;          // "WAVE"
+    private static final int FMT = 0x20746d66;           // "fmt "
+    private static final int DS64 = 0x34367364;          // "ds64"
+    private static final int FACT = 0x74636166;          // "fact"
+    private static final int DATA = 0x61746164;          // "data"
+
+    static final int FORMAT_PCM = 1;
+    static final int FORMAT_IEEE_FLOAT = 3;
+    static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    // Size of the mapped regions; chunk headers beyond it are read from a new region
+    private static final int REGION_SIZE = 1 << 16;
+    private static final long NO_SIZE = 0xFFFFFFFFL;
+
+    private final int format;
+    private final int channels;
+    private final long sampleRate;
+    private final int blockAlign;
+    private final int bitsPerSample;
+    private final long numberOfFrames;
+
+    private WavHeader(int format, int channels, long sampleRate, int blockAlign, int bitsPerSample,
+            long numberOfFrames) {
+        this.format = format;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.blockAlign = blockAlign;
+        this.bitsPerSample = bitsPerSample;
+        this.numberOfFrames = numberOfFrames;
+    }
+
+    static WavHeader read(String pathname) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(pathname), StandardOpenOption.READ)) {
+            return read(channel, pathname);
+        }
+    }
+
+    private static WavHeader read(FileChannel channel, String pathname) throws IOException {
+        long fileSize = channel.size();
+        MappedByteBuffer region = map(channel, 0, fileSize);
+        if (region.remaining() < 12) {
+            throw new IOException("Not a WAVE file: " + pathname);
+        }
+        int riff = region.getInt(0);
+        if (riff != RIFF && riff != RF64 || region.getInt(8) != WAVE) {
+            throw new IOException("Not a WAVE file: " + pathname);
+        }
+
+        int format = -1;
+        int channels = 0;
+        long sampleRate = 0;
+        int blockAlign = 0;
+        int bitsPerSample = 0;
+        long ds64DataSize = -1;
+        long factFrames = -1;
+        long regionStart = 0;
+        long position = 12;
+        while (position + 8 <= fileSize) {
+            if (position + 8 > regionStart + region.limit()) {
+                regionStart = position;
+                region = map(channel, position, fileSize);
+            }
+            int offset = (int) (position - regionStart);
+            int id = region.getInt(offset);
+            long size = region.getInt(offset + 4) & NO_SIZE;
+            long body = position + 8;
+
+            if (id == DATA) {
+                if (format == -1) {
+                    throw new IOException("No fmt chunk before data: " + pathname);
+                }
+                if (riff == RF64 && size == NO_SIZE && ds64DataSize >= 0) {
+                    size = ds64DataSize;
+                }
+                // Writers that could not finish the header leave the size open or too large
+                size = Math.min(size, fileSize - body);
+                long frames;
+                if (format != FORMAT_PCM && format != FORMAT_IEEE_FLOAT && factFrames >= 0) {
+                    frames = factFrames;
+                } else if (blockAlign > 0) {
+                    frames = size / blockAlign;
+                } else {
+                    throw new IOException("Invalid block alignment: " + pathname);
+                }
+                return new WavHeader(format, channels, sampleRate, blockAlign, bitsPerSample, frames);
+            }
+
+            // The other chunks of interest are small, they are read from the region once mapped
+            if ((id == FMT || id == DS64 || id == FACT) && body + Math.min(size, 40) > regionStart + region.limit()) {
+                regionStart = position;
+                region = map(channel, position, fileSize);
+                offset = 0;
+            }
+            int bodyOffset = offset + 8;
+            if (id == FMT && size >= 16) {
+                format = region.getShort(bodyOffset) & 0xFFFF;
+                channels = region.getShort(bodyOffset + 2) & 0xFFFF;
+                sampleRate = region.getInt(bodyOffset + 4) & NO_SIZE;
+                blockAlign = region.getShort(bodyOffset + 12) & 0xFFFF;
+                bitsPerSample = region.getShort(bodyOffset + 14) & 0xFFFF;
+                if (format == FORMAT_EXTENSIBLE && size >= 40) {
+                    // The sub format GUID starts with the actual format tag
+                    format = region.getShort(bodyOffset + 24) & 0xFFFF;
+                }
+            } else if (id == DS64 && size >= 16) {
+                ds64DataSize = region.getLong(bodyOffset + 8);
+            } else if (id == FACT && size >= 4) {
+                factFrames = region.getInt(bodyOffset) & NO_SIZE;
+            }
+            // Chunks are padded to an even size
+            position = body + size + (size & 1);
+        }
+        throw new IOException("No data chunk: " + pathname);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long fileSize) throws IOException {
+        long length = Math.min(REGION_SIZE, fileSize - position);
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        return region;
+    }
+
+    int getFormat() {
+        return format;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    long getSampleRate() {
+        return sampleRate;
+    }
+
+    int getBlockAlign() {
+        return blockAlign;
+    }
+
+    int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    long getNumberOfFrames() {
+        return numberOfFrames;
+    }
+
+    /**
+     * Returns the duration in microseconds, computed with integer arithmetic that cannot overflow.
+     */
+    long getDuration() {
+        if (sampleRate == 0) {
+            return 0;
+        }
+        return numberOfFrames / sampleRate * 1_000_000 + numberOfFrames % sampleRate * 1_000_000 / sampleRate;
+    }
+}